@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/** The distinct characters (symbols) of a corpus, numbered densely from 0 in character
+ *  order. A corpus like shakespeareinlove.txt has fewer than 100 symbols, so an id takes
+ *  7 bits instead of the 16 of a char, and a window of up to 9 characters (63 / 7)
+ *  packs into a single long, where a window of chars packs only 4 (see Window.packed()).
+ *  Stores given an alphabet (see WindowTable) key their windows by this packed form. */
+public class Alphabet {
+
+    // The symbols, by id
+    private final char[] symbols;
+
+    // The id of each character up to the largest symbol, or -1 if it is not a symbol
+    private final int[] ids;
+
+    // The number of bits of an id
+    private final int bits;
+
+    private Alphabet(boolean[] seen) {
+        int n = 0;
+        int max = 0;
+        for (int c = 0; c < seen.length; c++) {
+            if (seen[c]) {
+                n++;
+                max = c;
+            }
+        }
+        symbols = new char[n];
+        ids = new int[max + 1];
+        Arrays.fill(ids, -1);
+        for (int c = 0, id = 0; c < seen.length; c++) {
+            if (seen[c]) {
+                symbols[id] = (char) c;
+                ids[c] = id++;
+            }
+        }
+        bits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(n - 1));
+    }
+
+    /** Returns the alphabet of the given text. */
+    public static Alphabet of(CharSequence text) {
+        boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+        for (int i = 0; i < text.length(); i++) {
+            seen[text.charAt(i)] = true;
+        }
+        return new Alphabet(seen);
+    }
+
+    /** Returns the alphabet of the text in the given file, read in one pass over a
+     *  memory mapping of the file (see MappedCorpus). */
+    public static Alphabet scan(String fileName) {
+        boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+        try (MappedCorpus corpus = new MappedCorpus(fileName)) {
+            CharBuffer block;
+            while ((block = corpus.nextBlock()) != null) {
+                while (block.hasRemaining()) {
+                    seen[block.get()] = true;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + fileName, e);
+        }
+        return new Alphabet(seen);
+    }
+
+    /** Returns the number of symbols in this alphabet. */
+    public int size() {
+        return symbols.length;
+    }
+
+    /** Returns the number of bits of an id. */
+    public int bits() {
+        return bits;
+    }
+
+    /** Returns the id of the given character, or -1 if it is not in this alphabet. */
+    public int id(char c) {
+        return c < ids.length ? ids[c] : -1;
+    }
+
+    /** Returns the symbol with the given id. */
+    public char symbol(int id) {
+        return symbols[id];
+    }
+
+    /** Returns true if windows of the given length pack into a long (see pack). */
+    public boolean canPack(int windowLength) {
+        return windowLength * bits < Long.SIZE;
+    }
+
+    /** Returns the ids of the characters of the given window packed into a long,
+     *  the last character in the lowest bits, or -1 if one of the characters is not
+     *  in this alphabet. The window must be short enough (see canPack). */
+    public long pack(CharSequence window) {
+        long key = 0;
+        for (int i = 0; i < window.length(); i++) {
+            int id = id(window.charAt(i));
+            if (id == -1) {
+                return -1;
+            }
+            key = (key << bits) | id;
+        }
+        return key;
+    }
+
+    /** Returns the window of the given length whose packed form is the given key. */
+    public String unpack(long key, int length) {
+        char[] window = new char[length];
+        int mask = (1 << bits) - 1;
+        for (int i = length - 1; i >= 0; i--) {
+            window[i] = symbols[(int) (key & mask)];
+            key >>>= bits;
+        }
+        return new String(window);
+    }
+}
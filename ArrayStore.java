@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+/** A window store that keeps the successors of each window in contiguous arrays, and
+ *  searches them a whole word at a time instead of one node at a time, for models
+ *  whose windows have many successors (short windows over a rich alphabet), where the
+ *  scans of List.indexOf and getRandomChar are the hot loops.
+ *
+ *  The successors of a window are kept in the order they were first seen (the reverse
+ *  of a List's order), so a new successor is appended, and nothing moves:
+ *    chars:  the characters, four 16-bit lanes to a long. update finds a character by
+ *            comparing the four lanes of a long at once (see indexOf).
+ *    counts: the counts.
+ *    cp:     the cumulative probabilities, accumulated in List order (from the last
+ *            successor to the first), so they never increase along the array. The
+ *            successor a List scan would find for r is then the last one whose cp is
+ *            greater than r, and the number of those is a branch-free count over the
+ *            whole array (see countAbove).
+ *  The probabilities are computed exactly as LanguageModel.calculateProbabilities does,
+ *  so the store samples the same characters as a ListStore for the same random numbers. */
+public class ArrayStore extends EntryStore {
+
+    // The number of 16-bit lanes in a long, and masks of the lowest and highest bit of each
+    private static final int LANES = Long.SIZE / Character.SIZE;
+    private static final long LOW_BITS = 0x0001000100010001L;
+    private static final long HIGH_BITS = 0x8000800080008000L;
+
+    // Maps each window to its entry number
+    private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+
+    // The entries, indexed by entry number
+    private int size;
+    private String[] windows = new String[16];
+    private int[] sizes = new int[16];        // number of successors of each entry
+    private int[] total = new int[16];        // total count of each entry's successors, 0 if dirty
+    private long[][] chars = new long[16][];
+    private int[][] counts = new int[16][];
+    private double[][] cp = new double[16][];
+
+    // The dirty entries (not kept in lazy mode, where a total of 0 is enough)
+    private final ArrayList<Integer> dirty = new ArrayList<Integer>();
+
+    public void update(Window window, char c) {
+        add(find(window), c, 1);
+    }
+
+    public void merge(Window window, List successors) {
+        int entry = find(window);
+        CharData[] arr = successors.toArray();
+        for (int i = arr.length - 1; i >= 0; i--) {
+            add(entry, arr[i].chr, arr[i].count);
+        }
+    }
+
+    // Returns the entry number of the given window, adding it if it is new
+    private int find(Window window) {
+        Integer entry = entries.get(window);
+        if (entry != null) {
+            return entry;
+        }
+        if (size == windows.length) {
+            int capacity = size * 2;
+            windows = Arrays.copyOf(windows, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            total = Arrays.copyOf(total, capacity);
+            chars = Arrays.copyOf(chars, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            cp = Arrays.copyOf(cp, capacity);
+        }
+        windows[size] = window.toString();
+        chars[size] = new long[1];
+        counts[size] = new int[LANES];
+        cp[size] = new double[LANES];
+        entries.put(windows[size], size);
+        return size++;
+    }
+
+    // Adds n occurrences of c to the successors of the given entry
+    private void add(int entry, char c, int n) {
+        if (total[entry] != 0 || sizes[entry] == 0) {
+            total[entry] = 0;
+            if (!lazy) {
+                dirty.add(entry);
+            }
+        }
+        int s = indexOf(chars[entry], sizes[entry], c);
+        if (s != -1) {
+            counts[entry][s] += n;
+            return;
+        }
+        s = sizes[entry]++;
+        if (s == counts[entry].length) {
+            chars[entry] = Arrays.copyOf(chars[entry], chars[entry].length * 2);
+            counts[entry] = Arrays.copyOf(counts[entry], s * 2);
+            cp[entry] = Arrays.copyOf(cp[entry], s * 2);
+        }
+        chars[entry][s / LANES] |= (long) c << (Character.SIZE * (s % LANES));
+        counts[entry][s] = n;
+    }
+
+    /** Returns the index of the given character among the first n characters packed
+     *  into the given longs (four to a long, the first in the lowest bits), or -1 if it
+     *  is not there. Each long is compared with four copies of the character at once:
+     *  the lanes that match become 0 in x, and (x - LOW_BITS) & ~x sets the high bit of
+     *  the lowest zero lane (and maybe of some above it, but never of one below). */
+    static int indexOf(long[] chars, int n, char c) {
+        long pattern = c * LOW_BITS;
+        int words = (n + LANES - 1) / LANES;
+        for (int w = 0; w < words; w++) {
+            long x = chars[w] ^ pattern;
+            long found = (x - LOW_BITS) & ~x & HIGH_BITS;
+            if (found != 0) {
+                int i = w * LANES + Long.numberOfTrailingZeros(found) / Character.SIZE;
+                // The lanes past the n-th are empty, and can only match c = 0
+                return (i < n) ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of the first n of the given cumulative probabilities that are
+     *  greater than r. Counting every one, instead of stopping at the first, makes the
+     *  loop free of branches, which lets the JIT compile it to vector instructions. */
+    static int countAbove(double[] cp, int n, double r) {
+        int above = 0;
+        for (int i = 0; i < n; i++) {
+            above += (cp[i] > r) ? 1 : 0;
+        }
+        return above;
+    }
+
+    // Returns the character of the given successor of the given entry
+    private char charAt(int entry, int s) {
+        return (char) (chars[entry][s / LANES] >>> (Character.SIZE * (s % LANES)));
+    }
+
+    public void calculateProbabilities() {
+        if (lazy) {
+            return;
+        }
+        for (int entry = 0; entry < size; entry++) {
+            calculateProbabilities(entry);
+        }
+        dirty.clear();
+    }
+
+    public void calculateProbabilitiesInParallel() {
+        if (lazy) {
+            return;
+        }
+        IntStream.range(0, size).parallel().forEach(this::calculateProbabilities);
+        dirty.clear();
+    }
+
+    public void calculateDirtyProbabilities() {
+        for (int entry : dirty) {
+            if (total[entry] == 0) {
+                calculateProbabilities(entry);
+            }
+        }
+        dirty.clear();
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+        this.lazy = lazy;
+        if (!lazy) {
+            for (int entry = 0; entry < size; entry++) {
+                if (total[entry] == 0) {
+                    calculateProbabilities(entry);
+                }
+            }
+            dirty.clear();
+        }
+    }
+
+    int entry(Window window) {
+        Integer entry = entries.get(window);
+        return (entry == null) ? -1 : entry;
+    }
+
+    int total(int entry) {
+        return total[entry];
+    }
+
+    void setTotal(int entry, int total) {
+        this.total[entry] = total;
+    }
+
+    // The successors are sampled from the last one first seen to the first
+    int firstSuccessor(int entry) {
+        return sizes[entry] - 1;
+    }
+
+    int nextSuccessor(int entry, int s) {
+        return s - 1;
+    }
+
+    char chr(int entry, int s) {
+        return charAt(entry, s);
+    }
+
+    int count(int entry, int s) {
+        return counts[entry][s];
+    }
+
+    double cp(int entry, int s) {
+        return cp[entry][s];
+    }
+
+    void setCp(int entry, int s, double cp) {
+        this.cp[entry][s] = cp;
+    }
+
+    // Returns the first successor, in List order, of the given entry whose cumulative
+    // probability is greater than r: the last of those counted by countAbove
+    int sample(int entry, double r) {
+        int above = countAbove(cp[entry], sizes[entry], r);
+        if (above == 0) {
+            return ' '; // Return space character if no character is found
+        }
+        return charAt(entry, above - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    String window(int entry) {
+        return windows[entry];
+    }
+}
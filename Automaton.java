@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+/** A trained model compiled into a state-transition automaton: every window is a state,
+ *  numbered from 0, and every successor of a window holds the number of the state that
+ *  it leads to (the window with the successor added at its end and its first character
+ *  deleted). Once the initial state is found, generation only indexes arrays: it never
+ *  builds, hashes or looks up a window.
+ *
+ *  A successor that leads to a window that is not in the model (a dead end, such as the
+ *  end of the corpus) is found when the model is compiled, and marked with state -1.
+ *  Generation then follows the automaton's RestartPolicy. */
+public class Automaton {
+
+    private final int windowLength;
+    private final RestartPolicy policy;
+
+    // The windows, by state, and the state of each window
+    private final String[] windows;
+    private final HashMap<String, Integer> states = new HashMap<String, Integer>();
+
+    // The successors of each state are first[state] to first[state + 1] - 1
+    private final int[] first;
+
+    // The state that each state leads to when rounding leaves the random number above
+    // the cumulative probability of every successor, and a space is generated instead
+    // (see LanguageModel.getRandomChar), or -1 if that is a dead end
+    private final int[] spaceState;
+
+    // The successors: their characters, cumulative probabilities, and next states
+    private final char[] chr;
+    private final double[] cp;
+    private final int[] nextState;
+
+    // The number of successors that lead to dead ends
+    private final int deadEnds;
+
+    /** Compiles the windows of the given store, whose windows have the given length,
+     *  into an automaton that handles dead ends by the given policy. */
+    public Automaton(WindowStore store, int windowLength, RestartPolicy policy) {
+        this.windowLength = windowLength;
+        this.policy = policy;
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<CharData[]> lists = new ArrayList<CharData[]>();
+        store.forEach((window, probs) -> {
+            keys.add(window);
+            lists.add(probs.toArray());
+        });
+        windows = keys.toArray(new String[0]);
+        int successors = 0;
+        for (int state = 0; state < windows.length; state++) {
+            states.put(windows[state], state);
+            successors += lists.get(state).length;
+        }
+        first = new int[windows.length + 1];
+        spaceState = new int[windows.length];
+        chr = new char[successors];
+        cp = new double[successors];
+        nextState = new int[successors];
+        int s = 0;
+        int dead = 0;
+        for (int state = 0; state < windows.length; state++) {
+            first[state] = s;
+            String tail = windows[state].substring(1);
+            Integer space = states.get(tail + ' ');
+            spaceState[state] = (space == null) ? -1 : space;
+            for (CharData data : lists.get(state)) {
+                chr[s] = data.chr;
+                cp[s] = data.cp;
+                Integer next = states.get(tail + data.chr);
+                nextState[s] = (next == null) ? -1 : next;
+                if (next == null) {
+                    dead++;
+                }
+                s++;
+            }
+        }
+        first[windows.length] = s;
+        deadEnds = dead;
+    }
+
+    /** Returns the number of states (windows) of this automaton. */
+    public int size() {
+        return windows.length;
+    }
+
+    /** Returns the number of successors that lead to dead ends. */
+    public int deadEnds() {
+        return deadEnds;
+    }
+
+    /** Returns the restart policy of this automaton. */
+    public RestartPolicy policy() {
+        return policy;
+    }
+
+    /** Generates a random text that continues the given initial text, like
+     *  LanguageModel.generate with the same seed: with the STOP policy, the texts are
+     *  the same. With the other policies, the text goes on past dead ends, so it always
+     *  has textLength generated characters. */
+    public String generate(String initialText, int textLength, long seed) {
+        return generate(initialText, textLength, new Random(seed));
+    }
+
+    /** Generates a random text that continues the given initial text, drawing from the
+     *  given random number generator. */
+    public String generate(String initialText, int textLength, RandomGenerator random) {
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+        Integer initial = states.get(initialText.substring(initialText.length() - windowLength));
+        if (initial == null) {
+            return initialText;
+        }
+        char[] text = new char[initialText.length() + textLength];
+        initialText.getChars(0, initialText.length(), text, 0);
+        int n = initialText.length();
+        int state = initial;
+        while (n < text.length) {
+            // Finds the first successor whose cumulative probability is greater than r
+            double r = random.nextDouble();
+            int s = first[state];
+            int end = first[state + 1];
+            while (s < end && r >= cp[s]) {
+                s++;
+            }
+            if (s == end) {
+                // Like LanguageModel.getRandomChar, when rounding leaves r above every cp
+                text[n++] = ' ';
+                state = spaceState[state];
+            }
+            else {
+                text[n++] = chr[s];
+                state = nextState[s];
+            }
+            if (state == -1) {
+                if (policy == RestartPolicy.STOP || n == text.length) {
+                    break;
+                }
+                state = (policy == RestartPolicy.RESTART_INITIAL) ? initial : random.nextInt(windows.length);
+            }
+        }
+        return new String(text, 0, n);
+    }
+}
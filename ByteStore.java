@@ -0,0 +1,394 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/** A window store for single-byte (ASCII) texts, that keeps windows and successors as
+ *  bytes rather than chars. It is organized like a WindowTable, but windows of up to 8
+ *  characters are packed into a long (8 bits per character, instead of 16), longer
+ *  windows take one byte per character, and each successor takes one byte.
+ *
+ *  Besides the WindowStore methods, which take windows of chars, the store can be
+ *  updated straight from the raw bytes of a corpus (see LanguageModel.trainBytes),
+ *  so that the text is never decoded while training. The hash code of a window of
+ *  bytes is the String hash code of the same text, so both kinds of lookups agree.
+ *  Characters are decoded only when they are sampled or listed. */
+public class ByteStore extends EntryStore {
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The length of the windows in this store
+    private final int windowLength;
+    private final boolean packed;
+    private final long packMask;
+
+    // The hash table: each slot holds an entry number plus one, or 0 if empty
+    private int[] slots;
+    private int mask;
+
+    // The entries (windows), indexed by entry number
+    private int size;
+    private long[] keys;        // packed windows (if packed)
+    private int[] hashes;       // hash codes of the windows (if not packed)
+    private byte[] keyBytes;    // bytes of the windows (if not packed)
+    private int[] head;         // first successor of each window
+    private int[] total;        // total count of each window's successors, 0 if dirty
+
+    // The dirty entries (not kept in lazy mode, where a total of 0 is enough)
+    private int dirtyCount;
+    private int[] dirty;
+
+    // The successors, linked into lists through next
+    private int successors;
+    private byte[] chr;
+    private int[] count;
+    private int[] next;
+    private double[] cp;
+
+    /** Constructs an empty store for windows of the given length. */
+    public ByteStore(int windowLength) {
+        this.windowLength = windowLength;
+        this.packed = windowLength <= Long.BYTES;
+        this.packMask = (windowLength >= Long.BYTES) ? -1L : (1L << (8 * windowLength)) - 1;
+        slots = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+        int entries = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+        if (packed) {
+            keys = new long[entries];
+        }
+        else {
+            hashes = new int[entries];
+            keyBytes = new byte[entries * windowLength];
+        }
+        head = new int[entries];
+        total = new int[entries];
+        dirty = new int[entries];
+        chr = new byte[entries];
+        count = new int[entries];
+        next = new int[entries];
+        cp = new double[entries];
+    }
+
+    /** Returns true if windows are packed into longs (see updatePacked). */
+    public boolean isPacked() {
+        return packed;
+    }
+
+    /** Packs the given byte into the given packed window, dropping its first byte. */
+    public long pack(long key, byte b) {
+        return ((key << 8) | (b & 0xFF)) & packMask;
+    }
+
+    /** Counts one more occurrence of the given byte after the given packed window. */
+    public void updatePacked(long key, byte successor) {
+        int entry = findPacked(key, true);
+        add(entry, successor, 1);
+    }
+
+    /** Counts one more occurrence of the given byte after the window of windowLength
+     *  bytes that starts at the given position of the given text. The hash code of that
+     *  window, as computed by hash(), is given by the caller, who rolls it along the text. */
+    public void update(ByteBuffer text, int start, int hash, byte successor) {
+        int entry = findBytes(text, start, hash, true);
+        add(entry, successor, 1);
+    }
+
+    /** Returns the hash code of the window of windowLength bytes at the given position
+     *  of the given text (the same as the String hash code of those characters). */
+    public int hash(ByteBuffer text, int start) {
+        int h = 0;
+        for (int i = 0; i < windowLength; i++) {
+            h = 31 * h + (text.get(start + i) & 0xFF);
+        }
+        return h;
+    }
+
+    public void update(Window window, char c) {
+        if (c > 0x7F) {
+            throw new IllegalArgumentException("A byte store holds only single-byte characters");
+        }
+        int entry = find(window, true);
+        add(entry, (byte) c, 1);
+    }
+
+    public void merge(Window window, List successors) {
+        int entry = find(window, true);
+        CharData[] arr = successors.toArray();
+        for (int i = arr.length - 1; i >= 0; i--) {
+            if (arr[i].chr > 0x7F) {
+                throw new IllegalArgumentException("A byte store holds only single-byte characters");
+            }
+            add(entry, (byte) arr[i].chr, arr[i].count);
+        }
+    }
+
+    // Adds n occurrences of b to the successors of the given entry
+    private void add(int entry, byte b, int n) {
+        if (total[entry] != 0) {
+            total[entry] = 0;
+            if (!lazy) {
+                dirty[dirtyCount++] = entry;
+            }
+        }
+        for (int s = head[entry]; s != -1; s = next[s]) {
+            if (chr[s] == b) {
+                count[s] += n;
+                return;
+            }
+        }
+        if (successors == chr.length) {
+            int capacity = successors * 2;
+            chr = Arrays.copyOf(chr, capacity);
+            count = Arrays.copyOf(count, capacity);
+            next = Arrays.copyOf(next, capacity);
+            cp = Arrays.copyOf(cp, capacity);
+        }
+        chr[successors] = b;
+        count[successors] = n;
+        next[successors] = head[entry];
+        head[entry] = successors++;
+    }
+
+    public void calculateProbabilities() {
+        if (lazy) {
+            return;
+        }
+        for (int entry = 0; entry < size; entry++) {
+            calculateProbabilities(entry);
+        }
+        dirtyCount = 0;
+    }
+
+    public void calculateProbabilitiesInParallel() {
+        if (lazy) {
+            return;
+        }
+        IntStream.range(0, size).parallel().forEach(this::calculateProbabilities);
+        dirtyCount = 0;
+    }
+
+    public void calculateDirtyProbabilities() {
+        for (int i = 0; i < dirtyCount; i++) {
+            if (total[dirty[i]] == 0) {
+                calculateProbabilities(dirty[i]);
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+        this.lazy = lazy;
+        if (!lazy) {
+            for (int entry = 0; entry < size; entry++) {
+                if (total[entry] == 0) {
+                    calculateProbabilities(entry);
+                }
+            }
+            dirtyCount = 0;
+        }
+    }
+
+    int entry(Window window) {
+        return find(window, false);
+    }
+
+    int total(int entry) {
+        return total[entry];
+    }
+
+    void setTotal(int entry, int total) {
+        this.total[entry] = total;
+    }
+
+    int firstSuccessor(int entry) {
+        return head[entry];
+    }
+
+    int nextSuccessor(int entry, int s) {
+        return next[s];
+    }
+
+    char chr(int entry, int s) {
+        return (char) (chr[s] & 0xFF);
+    }
+
+    int count(int entry, int s) {
+        return count[s];
+    }
+
+    double cp(int entry, int s) {
+        return cp[s];
+    }
+
+    void setCp(int entry, int s, double cp) {
+        this.cp[s] = cp;
+    }
+
+    int sample(int entry, double r) {
+        for (int s = head[entry]; s != -1; s = next[s]) {
+            if (r < cp[s]) {
+                return (char) (chr[s] & 0xFF);
+            }
+        }
+        return ' '; // Return space character if no character is found
+    }
+
+    public int size() {
+        return size;
+    }
+
+    String window(int entry) {
+        StringBuilder window = new StringBuilder(windowLength);
+        for (int i = 0; i < windowLength; i++) {
+            window.append((char) (packed ? (keys[entry] >>> (8 * (windowLength - 1 - i))) & 0xFF
+                                         : keyBytes[entry * windowLength + i] & 0xFF));
+        }
+        return window.toString();
+    }
+
+    // Returns the entry number of the given window of chars, or -1 if it is not in the
+    // store (or has a character that is not a single byte) and add is false.
+    // If add is true, a missing window is added.
+    private int find(Window window, boolean add) {
+        for (int i = 0; i < windowLength; i++) {
+            if (window.charAt(i) > 0x7F) {
+                if (add) {
+                    throw new IllegalArgumentException("A byte store holds only single-byte characters");
+                }
+                return -1;
+            }
+        }
+        if (packed) {
+            long key = 0;
+            for (int i = 0; i < windowLength; i++) {
+                key = pack(key, (byte) window.charAt(i));
+            }
+            return findPacked(key, add);
+        }
+        int hash = window.hashCode();
+        int slot = Window.mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && keyEquals(entry, window)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add) {
+            return -1;
+        }
+        growEntries();
+        hashes[size] = hash;
+        for (int i = 0; i < windowLength; i++) {
+            keyBytes[size * windowLength + i] = (byte) window.charAt(i);
+        }
+        return addEntry(slot);
+    }
+
+    // Checks if the bytes of the given entry are the characters of the given window
+    private boolean keyEquals(int entry, Window window) {
+        int offset = entry * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (keyBytes[offset + i] != window.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the entry number of the given packed window, as find does
+    private int findPacked(long key, boolean add) {
+        int slot = Window.mix(key) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (keys[entry] == key) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add) {
+            return -1;
+        }
+        growEntries();
+        keys[size] = key;
+        return addEntry(slot);
+    }
+
+    // Returns the entry number of the window at the given position of the given text, as find does
+    private int findBytes(ByteBuffer text, int start, int hash, boolean add) {
+        int slot = Window.mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && keyEquals(entry, text, start)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add) {
+            return -1;
+        }
+        growEntries();
+        hashes[size] = hash;
+        for (int i = 0; i < windowLength; i++) {
+            keyBytes[size * windowLength + i] = text.get(start + i);
+        }
+        return addEntry(slot);
+    }
+
+    // Checks if the bytes of the given entry are those at the given position of the given text
+    private boolean keyEquals(int entry, ByteBuffer text, int start) {
+        int offset = entry * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (keyBytes[offset + i] != text.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Makes room for one more entry
+    private void growEntries() {
+        if (size == head.length) {
+            int capacity = size * 2;
+            if (packed) {
+                keys = Arrays.copyOf(keys, capacity);
+            }
+            else {
+                hashes = Arrays.copyOf(hashes, capacity);
+                keyBytes = Arrays.copyOf(keyBytes, capacity * windowLength);
+            }
+            head = Arrays.copyOf(head, capacity);
+            total = Arrays.copyOf(total, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+        }
+    }
+
+    // Adds the entry whose key was just set, in the given slot, and returns its number
+    private int addEntry(int slot) {
+        head[size] = -1;
+        total[size] = 0;
+        if (!lazy) {
+            dirty[dirtyCount++] = size;
+        }
+        slots[slot] = size + 1;
+        int entry = size++;
+        if (size > slots.length * LOAD_FACTOR) {
+            rehash(slots.length * 2);
+        }
+        return entry;
+    }
+
+    // Rebuilds the hash table with the given number of slots
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = Window.mix(packed ? keys[entry] : hashes[entry]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+}
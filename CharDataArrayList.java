@@ -0,0 +1,222 @@
+import java.util.Arrays;
+
+/** A list of character data objects, with the same API as List, that keeps the fields of
+ *  its CharData objects in two primitive arrays instead of in a CharData object and a
+ *  Node per character: a character takes a long (its char and count) and two doubles
+ *  (its p and cp), 24 bytes next to each other, instead of 64 bytes in two objects
+ *  spread over the heap (see LanguageModel.useArrayLists). Only two arrays, because
+ *  most windows have one or two successors, and each array has a 16-byte header.
+ *
+ *  The characters are kept in the order they were first seen, so adding one appends it
+ *  to the arrays; the list order (the newest character first, like List.addFirst) is
+ *  that order reversed: the element at index i of the list is at position size - 1 - i
+ *  of the arrays.
+ *
+ *  There are no CharData objects or nodes to hand out, so getFirstNode, getFirst, get,
+ *  toArray and listIterator return copies, as List allows: changing their fields does
+ *  not change the list, which changes only through its own methods. */
+public class CharDataArrayList extends List {
+
+    // About the bytes of heap memory taken by a successor (see ListStore.memoryBytes)
+    static final int SUCCESSOR_BYTES = 24;
+
+    private static final int INITIAL_CAPACITY = 1;
+
+    // The fields of the CharData objects, in the order they were first seen: the char
+    // of each in the high 32 bits of a long and its count in the low 32 bits, and its
+    // p and cp in two consecutive doubles
+    private long[] chars = new long[INITIAL_CAPACITY];
+    private double[] probs = new double[2 * INITIAL_CAPACITY];
+
+    /** Constructs an empty list. */
+    public CharDataArrayList() {
+    }
+
+    // Returns the position in the arrays of the element at the given index of the list
+    private int position(int index) {
+        return size - 1 - index;
+    }
+
+    // Returns the char, count, p and cp at the given position of the arrays
+    private char chr(int position) {
+        return (char) (chars[position] >>> 32);
+    }
+
+    private int count(int position) {
+        return (int) chars[position];
+    }
+
+    private double p(int position) {
+        return probs[2 * position];
+    }
+
+    private double cp(int position) {
+        return probs[2 * position + 1];
+    }
+
+    // Returns a copy of the CharData object at the given position of the arrays
+    private CharData charData(int position) {
+        CharData data = new CharData(chr(position));
+        data.count = count(position);
+        data.p = p(position);
+        data.cp = cp(position);
+        return data;
+    }
+
+    /** Returns the first of a chain of new nodes, that holds copies of the elements of
+     *  this list, in list order (null if the list is empty). */
+    public Node getFirstNode() {
+        Node first = null;
+        for (int i = 0; i < size; i++) {
+            first = new Node(charData(i), first);
+        }
+        return first;
+    }
+
+    /** Returns (a copy of) the first element in the list */
+    public CharData getFirst() {
+        return charData(position(0));
+    }
+
+    /** Adds a CharData object with the given character to the beginning of this list. */
+    public void addFirst(char chr) {
+        if (size == chars.length) {
+            chars = Arrays.copyOf(chars, size * 2);
+            probs = Arrays.copyOf(probs, size * 4);
+        }
+        chars[size] = ((long) chr << 32) | 1;
+        probs[2 * size] = 0;
+        probs[2 * size + 1] = 0;
+        size++;
+    }
+
+    /** Textual representation of this list. */
+    public String toString() {
+        if (size == 0) {
+            return "()";
+        }
+        StringBuilder s = new StringBuilder("(");
+        for (int i = size - 1; i >= 0; i--) {
+            s.append("(" + chr(i) + " " + count(i) + " " + p(i) + " " + cp(i) + ")");
+            s.append(i > 0 ? " " : ")");
+        }
+        return s.toString();
+    }
+
+    /** Returns the index of the first CharData object in this list
+     *  that has the same chr value as the given char,
+     *  or -1 if there is no such object in this list. */
+    public int indexOf(char chr) {
+        int position = find(chr);
+        return (position == -1) ? -1 : position(position);
+    }
+
+    // Returns the position in the arrays of the given character, or -1 if it is not there
+    private int find(char c) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (chr(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** If the given character exists in one of the CharData objects in this list,
+     *  increments its counter. Otherwise, adds a new CharData object with the
+     *  given chr to the beginning of this list. */
+    public void update(char chr) {
+        update(chr, 1);
+    }
+
+    /** Like update(chr), but counts the given number of occurrences of chr at once.
+     *  Throws an IllegalArgumentException if the count is negative, or would take the
+     *  count of chr past Integer.MAX_VALUE. */
+    public void update(char chr, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count " + count + " of " + chr);
+        }
+        int position = find(chr);
+        if (position != -1) {
+            if (count > Integer.MAX_VALUE - count(position)) {
+                throw new IllegalArgumentException("The count of " + chr + " would overflow: "
+                        + count(position) + " + " + count);
+            }
+            chars[position] += count;
+            return;
+        }
+        addFirst(chr);
+        chars[size - 1] = ((long) chr << 32) | count;
+    }
+
+    /** If the given character exists in one of the CharData objects
+     *  in this list, removes this CharData object from the list and returns
+     *  true. Otherwise, returns false. */
+    public boolean remove(char chr) {
+        int position = find(chr);
+        if (position == -1) {
+            return false;
+        }
+        int moved = size - 1 - position;
+        System.arraycopy(chars, position + 1, chars, position, moved);
+        System.arraycopy(probs, 2 * (position + 1), probs, 2 * position, 2 * moved);
+        size--;
+        return true;
+    }
+
+    /** Returns (a copy of) the CharData object at the specified index in this list.
+     *  If the index is negative or is not less than the size of this list,
+     *  throws an IndexOutOfBoundsException. */
+    public CharData get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return charData(position(index));
+    }
+
+    /** Returns an array of (copies of) all the CharData objects in this list. */
+    public CharData[] toArray() {
+        CharData[] arr = new CharData[size];
+        for (int i = 0; i < size; i++) {
+            arr[i] = charData(position(i));
+        }
+        return arr;
+    }
+
+    /** Returns an iterator over (copies of) the elements in this list, starting at the given index. */
+    public ListIterator listIterator(int index) {
+        // If the list is empty, there is nothing to iterate
+        if (size == 0) return null;
+        Node current = getFirstNode();
+        for (int i = 0; i < index; i++) {
+            current = current.next;
+        }
+        return new ListIterator(current);
+    }
+
+    /** Computes and sets the probabilities of the characters in this list, over the
+     *  arrays, exactly as List.calculateProbabilities does over the nodes. */
+    void calculateProbabilities() {
+        double totalCharacters = 0.0;
+        for (int i = 0; i < size; i++) {
+            totalCharacters += count(i);
+        }
+        double cumulativeProbability = 0.0;
+        for (int i = size - 1; i >= 0; i--) {
+            double p = count(i) / totalCharacters;
+            cumulativeProbability += p;
+            probs[2 * i] = p;
+            probs[2 * i + 1] = cumulativeProbability;
+        }
+    }
+
+    /** Returns the first character in this list whose cumulative probability is greater
+     *  than r, like List.getRandomChar. */
+    char getRandomChar(double r) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (r < cp(i)) {
+                return chr(i);
+            }
+        }
+        return ' '; // Return space character if no character is found
+    }
+}
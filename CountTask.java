@@ -0,0 +1,80 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/** A fork/join task that counts the windows of a part of a text, and the characters
+ *  that follow them, into a private map.
+ *
+ *  The task counts the successors at positions from (inclusive) to to (exclusive) of
+ *  the text, each after the windowLength characters that precede it. So a chunk reads
+ *  the windowLength characters before its first successor too, and neighbouring chunks
+ *  overlap by exactly the windows that cross their border. Large ranges are split in two,
+ *  counted in parallel, and the two maps are merged.
+ *
+ *  The maps are LinkedHashMaps, and merging keeps both the order in which windows were
+ *  first seen and the order of the characters in each list. Adding the result to a
+ *  store in that order gives exactly the store that counting the range sequentially
+ *  would give (see LanguageModel.trainParallel). */
+public class CountTask extends RecursiveTask<LinkedHashMap<String, List>> {
+
+    private static final long serialVersionUID = 1L;
+
+    // Ranges with fewer successors than this are counted without splitting
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private final CharSequence text;
+    private final int from;
+    private final int to;
+    private final int windowLength;
+
+    /** Constructs a task that counts the successors in the given range of the text. */
+    public CountTask(CharSequence text, int from, int to, int windowLength) {
+        this.text = text;
+        this.from = from;
+        this.to = to;
+        this.windowLength = windowLength;
+    }
+
+    protected LinkedHashMap<String, List> compute() {
+        if (to - from <= CHUNK_SIZE) {
+            return count();
+        }
+        int middle = from + (to - from) / 2;
+        CountTask left = new CountTask(text, from, middle, windowLength);
+        CountTask right = new CountTask(text, middle, to, windowLength);
+        right.fork();
+        LinkedHashMap<String, List> counts = left.compute();
+        merge(counts, right.join());
+        return counts;
+    }
+
+    // Counts the range sequentially
+    private LinkedHashMap<String, List> count() {
+        LinkedHashMap<String, List> counts = new LinkedHashMap<String, List>();
+        ListStore store = new ListStore(counts);
+        Window window = new Window(windowLength);
+        for (int i = from - windowLength; i < from; i++) {
+            window.push(text.charAt(i));
+        }
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            store.update(window, c);
+            window.push(c);
+        }
+        return counts;
+    }
+
+    /** Adds the counts of the second map, which were counted after those of the first,
+     *  to the first map. */
+    static void merge(LinkedHashMap<String, List> counts, LinkedHashMap<String, List> later) {
+        for (Map.Entry<String, List> entry : later.entrySet()) {
+            List probs = counts.get(entry.getKey());
+            if (probs == null) {
+                counts.put(entry.getKey(), entry.getValue());
+            }
+            else {
+                ListStore.addAll(probs, entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.function.BiConsumer;
+
+/** The base of the window stores that number their windows (the entries, from 0 to
+ *  size() - 1), and keep the counts and cumulative probabilities of the successors of
+ *  each entry in arrays or buffers of their own, instead of in Lists.
+ *
+ *  A store walks the successors of an entry in sampling order through firstSuccessor and
+ *  nextSuccessor, and reads and writes their fields through the accessors below. From
+ *  those, this class computes the probabilities of an entry exactly as
+ *  List.calculateProbabilities does, so every store samples the same characters as a
+ *  ListStore for the same random numbers, and lists the entries for forEach. An entry
+ *  whose total count is 0 is dirty: its probabilities are computed before it is sampled
+ *  or listed. */
+abstract class EntryStore implements WindowStore {
+
+    // True if the probabilities of a dirty entry are computed only when it is sampled
+    // (see WindowStore.setLazyProbabilities)
+    boolean lazy;
+
+    /** Returns the entry number of the given window, or -1 if it is not in this store. */
+    abstract int entry(Window window);
+
+    /** Returns the window of the given entry. */
+    abstract String window(int entry);
+
+    /** Returns the total count of the successors of the given entry, or 0 if it is dirty. */
+    abstract int total(int entry);
+
+    abstract void setTotal(int entry, int total);
+
+    /** Returns the first successor of the given entry in sampling order, or -1 if it has
+     *  none, and the successor after the given one, or -1 if it is the last. */
+    abstract int firstSuccessor(int entry);
+
+    abstract int nextSuccessor(int entry, int s);
+
+    /** Returns the fields of the given successor of the given entry. */
+    abstract char chr(int entry, int s);
+
+    abstract int count(int entry, int s);
+
+    abstract double cp(int entry, int s);
+
+    abstract void setCp(int entry, int s, double cp);
+
+    /** Returns the first successor of the given (clean) entry whose cumulative
+     *  probability is greater than r. */
+    abstract int sample(int entry, double r);
+
+    /** Computes the total count and the cumulative probabilities of the successors of
+     *  the given entry, exactly as List.calculateProbabilities does. */
+    void calculateProbabilities(int entry) {
+        int sum = 0;
+        for (int s = firstSuccessor(entry); s != -1; s = nextSuccessor(entry, s)) {
+            sum += count(entry, s);
+        }
+        setTotal(entry, sum);
+        double totalCharacters = sum;
+        double cumulativeProbability = 0.0;
+        for (int s = firstSuccessor(entry); s != -1; s = nextSuccessor(entry, s)) {
+            cumulativeProbability += count(entry, s) / totalCharacters;
+            setCp(entry, s, cumulativeProbability);
+        }
+    }
+
+    /** Computes the probabilities of the given entry, if it is dirty. */
+    void finish(int entry) {
+        if (total(entry) == 0) {
+            calculateProbabilities(entry);
+        }
+    }
+
+    public boolean containsKey(Window window) {
+        return entry(window) != -1;
+    }
+
+    public int sample(Window window, double r) {
+        int entry = entry(window);
+        if (entry == -1) {
+            return -1;
+        }
+        if (lazy) {
+            // Sampling computes lazy probabilities, so concurrent samplers take turns
+            synchronized (this) {
+                finish(entry);
+                return sample(entry, r);
+            }
+        }
+        finish(entry);
+        return sample(entry, r);
+    }
+
+    public void forEach(BiConsumer<String, List> action) {
+        for (int entry = 0; entry < size(); entry++) {
+            finish(entry);
+            ListBuilder probs = new ListBuilder();
+            for (int s = firstSuccessor(entry); s != -1; s = nextSuccessor(entry, s)) {
+                probs.add(chr(entry, s), count(entry, s), total(entry), cp(entry, s));
+            }
+            action.accept(window(entry), probs.toList());
+        }
+    }
+
+    public String toString() {
+        return listWindows();
+    }
+}
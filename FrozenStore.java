@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/** A read-only copy of a trained store, laid out for generation: the successors of
+ *  all the windows are frozen, in sampling order, into flat arrays (those of a window
+ *  are consecutive), and each window maps to the range of its successors. Generation
+ *  then reads arrays instead of chasing list nodes, and can use a faster Sampling
+ *  strategy, whose tables are built once, here, after the probabilities are final. */
+public class FrozenStore implements WindowStore {
+
+    private final Sampling sampling;
+
+    // Windows with at most this many successors are scanned even by BINARY_SEARCH,
+    // which only pays off on wider successor sets
+    static final int SCAN_LIMIT = 8;
+
+    // Maps each window to its entry number
+    private final HashMap<String, Integer> entries = new HashMap<String, Integer>();
+
+    // The windows, and the first successor of each (first[size] is the number of successors)
+    private final String[] windows;
+    private final int[] first;
+
+    // The successors, by entry
+    private final char[] chr;
+    private final int[] count;
+    private final double[] cp;
+
+    // The alias tables of the entries (if sampling is ALIAS): the probability of keeping
+    // each successor's column, and the successor to draw otherwise
+    private double[] keep;
+    private int[] alias;
+
+    // The successors of the entries sorted by count, most frequent first, and the
+    // prefix sums of their weights (if sampling is TOP_K)
+    private final int topK;
+    private final double temperature;
+    private char[] sortedChr;
+    private double[] weightSums;
+
+    /** Freezes the windows of the given store (computing their probabilities, if needed),
+     *  for sampling with the given strategy. */
+    public FrozenStore(WindowStore store, Sampling sampling) {
+        this(store, sampling, 0, 1);
+    }
+
+    /** Freezes the windows of the given store for TOP_K sampling: among the topK most
+     *  frequent successors of each window (all of them if topK is 0), with weights
+     *  count ^ (1 / temperature). Throws an IllegalArgumentException if topK is negative
+     *  or the temperature is not positive. */
+    public FrozenStore(WindowStore store, int topK, double temperature) {
+        this(store, Sampling.TOP_K, topK, temperature);
+    }
+
+    private FrozenStore(WindowStore store, Sampling sampling, int topK, double temperature) {
+        if (temperature <= 0) {
+            throw new IllegalArgumentException("The temperature must be positive: " + temperature);
+        }
+        if (topK < 0) {
+            throw new IllegalArgumentException("The number of successors to sample must not be negative: " + topK);
+        }
+        this.sampling = sampling;
+        this.topK = topK;
+        this.temperature = temperature;
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<CharData[]> lists = new ArrayList<CharData[]>();
+        store.forEach((window, probs) -> {
+            keys.add(window);
+            lists.add(probs.toArray());
+        });
+        int successors = 0;
+        for (CharData[] arr : lists) {
+            successors += arr.length;
+        }
+        windows = keys.toArray(new String[0]);
+        first = new int[windows.length + 1];
+        chr = new char[successors];
+        count = new int[successors];
+        cp = new double[successors];
+        int s = 0;
+        for (int entry = 0; entry < windows.length; entry++) {
+            entries.put(windows[entry], entry);
+            first[entry] = s;
+            for (CharData data : lists.get(entry)) {
+                chr[s] = data.chr;
+                count[s] = data.count;
+                cp[s] = data.cp;
+                s++;
+            }
+        }
+        first[windows.length] = s;
+        if (sampling == Sampling.ALIAS) {
+            buildAliasTables();
+        }
+        if (sampling == Sampling.TOP_K) {
+            buildWeightSums();
+        }
+    }
+
+    /** Returns the sampling strategy of this store. */
+    public Sampling sampling() {
+        return sampling;
+    }
+
+    // Builds the alias table of every entry, by Vose's method: each successor gets a
+    // column of height 1 / n, filled first by its own probability, and topped up by the
+    // probability of a successor that is larger than 1 / n
+    private void buildAliasTables() {
+        keep = new double[chr.length];
+        alias = new int[chr.length];
+        int[] small = new int[0];
+        int[] large = new int[0];
+        for (int entry = 0; entry < windows.length; entry++) {
+            int from = first[entry];
+            int n = first[entry + 1] - from;
+            if (small.length < n) {
+                small = new int[n];
+                large = new int[n];
+            }
+            long total = 0;
+            for (int s = from; s < from + n; s++) {
+                total += count[s];
+            }
+            // The probabilities, scaled so that the average column is 1
+            int smalls = 0;
+            int larges = 0;
+            for (int s = from; s < from + n; s++) {
+                keep[s] = (double) count[s] * n / total;
+                if (keep[s] < 1) {
+                    small[smalls++] = s;
+                }
+                else {
+                    large[larges++] = s;
+                }
+            }
+            while (smalls > 0 && larges > 0) {
+                int less = small[--smalls];
+                int more = large[--larges];
+                alias[less] = more;
+                keep[more] = (keep[more] + keep[less]) - 1;
+                if (keep[more] < 1) {
+                    small[smalls++] = more;
+                }
+                else {
+                    large[larges++] = more;
+                }
+            }
+            // What is left is full, up to rounding errors
+            while (larges > 0) {
+                keep[large[--larges]] = 1;
+            }
+            while (smalls > 0) {
+                keep[small[--smalls]] = 1;
+            }
+        }
+    }
+
+    // Sorts the successors of every entry by count (keeping the sampling order of equal
+    // counts), and computes the prefix sums of their weights. The weights are scaled by
+    // the largest count, so that low temperatures do not overflow.
+    private void buildWeightSums() {
+        sortedChr = new char[chr.length];
+        weightSums = new double[chr.length];
+        Integer[] order = new Integer[0];
+        for (int entry = 0; entry < windows.length; entry++) {
+            int from = first[entry];
+            int n = first[entry + 1] - from;
+            if (order.length < n) {
+                order = new Integer[n];
+            }
+            for (int i = 0; i < n; i++) {
+                order[i] = from + i;
+            }
+            Arrays.sort(order, 0, n, (a, b) -> count[b] - count[a]);
+            double max = count[order[0]];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sortedChr[from + i] = chr[order[i]];
+                sum += Math.pow(count[order[i]] / max, 1 / temperature);
+                weightSums[from + i] = sum;
+            }
+        }
+    }
+
+    public void update(Window window, char chr) {
+        throw new UnsupportedOperationException("A frozen store is read-only");
+    }
+
+    public void merge(Window window, List successors) {
+        throw new UnsupportedOperationException("A frozen store is read-only");
+    }
+
+    // The probabilities were computed before the store was frozen
+    public void calculateProbabilities() {
+    }
+
+    public void calculateProbabilitiesInParallel() {
+    }
+
+    public void calculateDirtyProbabilities() {
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+    }
+
+    public boolean containsKey(Window window) {
+        return entries.containsKey(window);
+    }
+
+    public int sample(Window window, double r) {
+        Integer entry = entries.get(window);
+        if (entry == null) {
+            return -1;
+        }
+        int from = first[entry];
+        int to = first[entry + 1];
+        if (sampling == Sampling.ALIAS) {
+            // Picks a column with the integer part of r * n, and the successor in the
+            // column with the fractional part
+            double u = r * (to - from);
+            int column = Math.min((int) u, to - from - 1);
+            int s = from + column;
+            return (u - column < keep[s]) ? chr[s] : chr[alias[s]];
+        }
+        if (sampling == Sampling.TOP_K) {
+            // Finds the first of the k most frequent successors whose prefix sum is
+            // greater than r times the sum of the k
+            int end = (topK > 0) ? Math.min(to, from + topK) : to;
+            double target = r * weightSums[end - 1];
+            int low = from;
+            int high = end - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (target < weightSums[middle]) {
+                    high = middle;
+                }
+                else {
+                    low = middle + 1;
+                }
+            }
+            return sortedChr[low];
+        }
+        if (sampling == Sampling.BINARY_SEARCH && to - from > SCAN_LIMIT) {
+            // Finds the first successor whose cumulative probability is greater than r;
+            // the cumulative probabilities never decrease, so it is the one a scan finds
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (r < cp[middle]) {
+                    high = middle;
+                }
+                else {
+                    low = middle + 1;
+                }
+            }
+            return (low < to) ? chr[low] : ' ';
+        }
+        for (int s = from; s < to; s++) {
+            if (r < cp[s]) {
+                return chr[s];
+            }
+        }
+        return ' '; // Return space character if no character is found
+    }
+
+    public int size() {
+        return windows.length;
+    }
+
+    public void forEach(BiConsumer<String, List> action) {
+        for (int entry = 0; entry < windows.length; entry++) {
+            int total = 0;
+            for (int s = first[entry]; s < first[entry + 1]; s++) {
+                total += count[s];
+            }
+            ListBuilder probs = new ListBuilder();
+            for (int s = first[entry]; s < first[entry + 1]; s++) {
+                probs.add(chr[s], count[s], total, cp[s]);
+            }
+            action.accept(windows[entry], probs.toList());
+        }
+    }
+
+    public String toString() {
+        return listWindows();
+    }
+}
@@ -0,0 +1,16 @@
+/** A request for a generated text, for LanguageModel.generateAll: the text to start
+ *  with, the number of characters to generate after it, and the seed to draw them with. */
+public class GenerationRequest {
+
+    final String initialText;
+    final int textLength;
+    final long seed;
+
+    /** Constructs a request for a text that continues initialText by textLength
+     *  characters, drawn with the given seed. */
+    public GenerationRequest(String initialText, int textLength, long seed) {
+        this.initialText = initialText;
+        this.textLength = textLength;
+        this.seed = seed;
+    }
+}
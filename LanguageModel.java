@@ -3,10 +3,40 @@
 // import java.io.IOException;
 // import java.math.BigDecimal;
 // import java.math.RoundingMode;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+import java.util.stream.IntStream;
 
 public class LanguageModel {
 
@@ -15,14 +45,39 @@ public class LanguageModel {
     // The map of this model.
     // Maps windows to lists of charachter data objects.
     HashMap<String, List> CharDataMap;
+
+    // The backing store of this model. By default, a ListStore over CharDataMap.
+    WindowStore store;
     
     // The window length used in this model.
     int windowLength;
     
     public int seed;
     
+    // The last window of the text given to incremental training, if any
+    private Window trailing;
+
+    // The number of characters that incremental training reads between updates of the probabilities
+    static final int INCREMENTAL_BATCH = 4096;
+
+    // The number of characters that streaming generation writes at a time
+    static final int GENERATE_CHUNK = 8192;
+
+    // The number of characters that parallel training reads and counts at a time
+    // (see countFile), so that a corpus never has to fit in a single String
+    static final int SEGMENT_SIZE = 1 << 24;
+    int segmentSize = SEGMENT_SIZE;
+
+    // The memory budget of the store, in bytes, and how to prune the store when it
+    // goes over the budget (null if the model has no budget)
+    private long memoryBudget;
+    private PruningPolicy pruning;
+
+    // True if the store computes probabilities lazily (see setLazyProbabilities)
+    private boolean lazy;
+
     // The random number generator used by this model. 
-	private Random randomGenerator = new Random();
+	private RandomGenerator randomGenerator = new Random();
 
     /** Constructs a language model with the given window length and a given
      *  seed value. Generating texts from this model multiple times with the 
@@ -32,6 +87,27 @@ public class LanguageModel {
         this.seed = seed;
         randomGenerator = new Random(seed);
         CharDataMap = new HashMap<String, List>();
+        store = new ListStore(CharDataMap);
+    }
+
+    /** Constructs a language model with the given window length and seed value,
+     *  that keeps its windows in the given store (e.g. a WindowTable) instead of
+     *  in CharDataMap, which then stays empty. */
+    public LanguageModel(int windowLength, int seed, WindowStore store) {
+        this(windowLength, seed);
+        this.store = store;
+    }
+
+    /** Constructs a language model with the given window length, that draws its random
+     *  numbers from the given generator: any java.util.random.RandomGenerator, such as
+     *  java.util.Random, SplittableRandom or RandomGenerator.of("L64X128MixRandom").
+     *  The generate methods that take no seed or generator of their own all draw from
+     *  it, so unless it is thread-safe (as java.util.Random is, and most other
+     *  generators are not), only one thread at a time may call them; concurrent
+     *  callers should pass their own seed or generator instead. */
+    public LanguageModel(int windowLength, RandomGenerator randomGenerator) {
+        this(windowLength);
+        this.randomGenerator = randomGenerator;
     }
 
     /** Constructs a language model with the given window length.
@@ -41,55 +117,452 @@ public class LanguageModel {
         this.windowLength = windowLength;
         randomGenerator = new Random();
         CharDataMap = new HashMap<String, List>();
+        store = new ListStore(CharDataMap);
+    }
+
+    /** Keeps the successors of each window of CharDataMap in the given order, instead
+     *  of in insertion order (see ListOrder and SelfOrganizingList). The order changes
+     *  the characters generated for a given seed, so it is never on by default. Must be
+     *  called before the model is trained, and not after useArrayLists. */
+    public void setListOrder(ListOrder order) {
+        checkUntrained("The list order of a model can only be set before it is trained");
+        checkPlainLists();
+        store = new ListStore(CharDataMap, order);
+    }
+
+    /** Keeps the successors of each window of CharDataMap in a CharDataArrayList, whose
+     *  characters, counts and probabilities are primitive arrays, instead of in a List
+     *  of nodes and CharData objects. The model is the same, and generates the same
+     *  texts, with about a third of the memory per successor. Must be called before
+     *  the model is trained, and not after setListOrder. */
+    public void useArrayLists() {
+        checkUntrained("A model can only switch to array lists before it is trained");
+        checkPlainLists();
+        store = new ListStore(CharDataMap, CharDataArrayList::new, CharDataArrayList.SUCCESSOR_BYTES);
+    }
+
+    // Throws an IllegalStateException with the given message if the model was trained,
+    // or does not keep its windows in CharDataMap
+    private void checkUntrained(String message) {
+        if (!(store instanceof ListStore) || ((ListStore) store).getMap() != CharDataMap || !CharDataMap.isEmpty()) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    // Throws an IllegalStateException if the kind of lists of the model was already
+    // chosen (by setListOrder or useArrayLists), so one choice never silently replaces the other
+    private void checkPlainLists() {
+        if (!((ListStore) store).isPlain()) {
+            throw new IllegalStateException("The lists of a model can only be chosen once");
+        }
     }
 
     /** Builds a language model from the text in the given file (the corpus). */
 	public void train(String fileName) {
-        String window = "";
-        char c;
+        Window window = new Window(this.windowLength);
         In in = new In(fileName);
-        List probs;
 
         // Reads just enough characters to form the first window
         for (int i = 0; i < this.windowLength; i++) {
             if (!in.isEmpty()) {
-                c = in.readChar();
-                window += c;
+                window.push(in.readChar());
             }
         }
     
         // Processes the entire text, one character at a time
         while (!in.isEmpty()) {
-            // Gets the next character
-            c = in.readChar();
-    
-
-            if (this.CharDataMap.containsKey(window)) {
-                // If the window was found in the map, gets the list of character data objects
-                probs = this.CharDataMap.get(window);
-            } 
-            else {
-                // If the window was not found in the map, creates a new list of character data objects
-                probs = new List();
-                
-            }
-            // Checks if the window is already in the map
-            probs.update(c);
-            // Adds the character to the list of character data objects
-            this.CharDataMap.put(window, probs);
-    
-            // Calculates the counts of the current character.
-    
-            // Advances the window: adds c to the window’s end, and deletes the window's first character.
-            window += c;
-            window = window.substring(1);
-            
+            // Counts the next character, and advances the window
+            advance(window, in.readChar());
         }
     
         // The entire file has been processed, and all the characters have been counted.
         // Proceeds to compute and set the p and cp fields of all the CharData objects in each linked list in the map.
-        for (List prob : CharDataMap.values()) {
-            calculateProbabilities(prob);
+        store.calculateProbabilities();
+    }
+
+    /** Builds a language model from the text in the given file, exactly as train does,
+     *  but reads the file through memory-mapped, block-decoded buffers (see MappedCorpus)
+     *  instead of one character at a time. Much faster on large corpora. */
+    public void trainMapped(String fileName) {
+        Window window = new Window(this.windowLength);
+        // train stops reading when only whitespace is left in the file, so whitespace
+        // is held back until a later non-whitespace character shows it is not trailing
+        StringBuilder pending = new StringBuilder();
+        try (MappedCorpus corpus = new MappedCorpus(fileName)) {
+            CharBuffer block;
+            while ((block = corpus.nextBlock()) != null) {
+                while (block.hasRemaining()) {
+                    char c = block.get();
+                    if (Character.isWhitespace(c)) {
+                        pending.append(c);
+                        continue;
+                    }
+                    for (int i = 0; i < pending.length(); i++) {
+                        advance(window, pending.charAt(i));
+                    }
+                    pending.setLength(0);
+                    advance(window, c);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + fileName, e);
+        }
+        store.calculateProbabilities();
+    }
+
+    /** Builds a language model from the text in the given file, exactly as train does,
+     *  but counts it on all the cores: the text is read through a memory mapping, one
+     *  segment of SEGMENT_SIZE characters at a time, each segment is split into chunks
+     *  that are counted in parallel (see CountTask) while the next segment is read, the
+     *  partial maps are merged in text order, and the probabilities of the merged
+     *  windows are computed in parallel. */
+    public void trainParallel(String fileName) {
+        try {
+            countFile(Paths.get(fileName), "");
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + fileName, e);
+        }
+        store.calculateProbabilitiesInParallel();
+    }
+
+    // Counts the text of the given file, after the given prefix, one segment at a time
+    // (each segment starts with the last windowLength characters of the one before, so
+    // it holds the window of its first successor), and adds the counts to the store in
+    // text order. Like train, ignores the whitespace at the end of the file, but not in
+    // the prefix. Returns the last (up to) windowLength characters of the text.
+    private String countFile(Path file, String prefix) throws IOException {
+        StringBuilder segment = new StringBuilder(prefix);
+        // The start of the text of the file in the segment, which trimming must not pass
+        int floor = prefix.length();
+        CountTask counting = null;
+        try (MappedCorpus corpus = new MappedCorpus(file)) {
+            CharBuffer block;
+            while ((block = corpus.nextBlock()) != null) {
+                segment.append(block);
+                if (segment.length() < this.segmentSize + this.windowLength) {
+                    continue;
+                }
+                // Cuts the segment after its last non-whitespace character, so that
+                // whitespace at the end of the file is never counted
+                int cut = endOfText(segment, floor);
+                if (cut > this.windowLength) {
+                    counting = countSegment(segment.substring(0, cut), counting);
+                    segment.delete(0, cut - this.windowLength);
+                    floor = this.windowLength;
+                }
+            }
+        }
+        segment.setLength(endOfText(segment, floor));
+        if (segment.length() > this.windowLength) {
+            counting = countSegment(segment.toString(), counting);
+        }
+        if (counting != null) {
+            addCounts(counting.join());
+        }
+        return segment.substring(Math.max(0, segment.length() - this.windowLength));
+    }
+
+    // Starts counting the successors of the given segment in the common ForkJoinPool,
+    // then adds the counts of the segment before it (if any) to the store, and returns
+    // the task of the given segment. So at most two segments are held at a time.
+    private CountTask countSegment(String segment, CountTask previous) {
+        CountTask task = new CountTask(segment, this.windowLength, segment.length(), this.windowLength);
+        ForkJoinPool.commonPool().execute(task);
+        if (previous != null) {
+            addCounts(previous.join());
+        }
+        return task;
+    }
+
+    // Returns the length of the given text without its trailing whitespace, but no less than floor
+    private static int endOfText(CharSequence text, int floor) {
+        int end = text.length();
+        while (end > floor && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    /** Builds a language model from the texts of all the given files (documents).
+     *  Up to ioThreads files are read ahead of the one being counted, and each file is
+     *  counted in parallel (see trainParallel) as soon as it has been read, while the
+     *  next one is read. The counts of each file are added to the model, in the order
+     *  of the files, before the file after the next is counted, so the result does not
+     *  depend on the timing, and only a few files are held in memory at a time. Files
+     *  larger than a segment (see SEGMENT_SIZE) are read in segments, when their turn
+     *  comes, instead of ahead.
+     *  If separator is null, each document starts with a new window, as if every file
+     *  were trained on its own. Otherwise, the model is trained on the documents joined
+     *  by the separator, exactly as train would on a single file with that text
+     *  (the trailing whitespace of each document is ignored, as train ignores it). */
+    public void trainFiles(Path[] files, String separator, int ioThreads) {
+        ExecutorService readers = Executors.newFixedThreadPool(ioThreads);
+        try {
+            // The reads of the files, submitted up to ioThreads files ahead (null for
+            // the large files, and for the files already counted)
+            ArrayList<Future<String>> texts = new ArrayList<Future<String>>();
+            CountTask counting = null;
+            // The last (up to windowLength) characters of the text before the current document
+            String before = "";
+            for (int i = 0; i < files.length; i++) {
+                while (texts.size() < files.length && texts.size() <= i + ioThreads) {
+                    Path file = files[texts.size()];
+                    texts.add(Files.size(file) > this.segmentSize ? null : readers.submit(() -> readCorpus(file)));
+                }
+                String prefix = (separator == null) ? "" : (i > 0) ? before + separator : before;
+                Future<String> read = texts.set(i, null);
+                if (read == null) {
+                    if (counting != null) {
+                        addCounts(counting.join());
+                        counting = null;
+                    }
+                    before = countFile(files[i], prefix);
+                    continue;
+                }
+                String text = prefix + read.get();
+                before = text.substring(Math.max(0, text.length() - this.windowLength));
+                if (text.length() > this.windowLength) {
+                    counting = countSegment(text, counting);
+                }
+            }
+            if (counting != null) {
+                addCounts(counting.join());
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not read the corpus", e);
+        }
+        catch (ExecutionException e) {
+            throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause()
+                    : new IllegalArgumentException("Could not read the corpus", e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the corpus", e);
+        }
+        finally {
+            readers.shutdownNow();
+        }
+        store.calculateProbabilitiesInParallel();
+    }
+
+    /** Builds a language model from the files matching the given pattern, like trainFiles.
+     *  The pattern is either a directory (all of its files are read) or a glob for the
+     *  names of the files in a directory, e.g. "corpora/*.txt". Files are read in the
+     *  order of their names. */
+    public void trainFiles(String pattern, String separator, int ioThreads) {
+        Path directory;
+        String glob = "*";
+        if (Files.isDirectory(Paths.get(pattern))) {
+            directory = Paths.get(pattern);
+        }
+        else {
+            int slash = Math.max(pattern.lastIndexOf('/'), pattern.lastIndexOf(File.separatorChar));
+            directory = Paths.get(slash == -1 ? "." : pattern.substring(0, slash + 1));
+            glob = pattern.substring(slash + 1);
+        }
+        ArrayList<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not list " + pattern, e);
+        }
+        Collections.sort(files);
+        trainFiles(files.toArray(new Path[0]), separator, ioThreads);
+    }
+
+    // Returns the text of the given file, without its trailing whitespace, which train ignores
+    static String readCorpus(Path file) {
+        String text = MappedCorpus.readAll(file);
+        return text.substring(0, endOfText(text, 0));
+    }
+
+    /** Builds a language model from the text in the given file, like train does, but
+     *  faster and in less memory when the file is single-byte (ASCII) text: then the
+     *  model counts the raw bytes of a memory mapping of the file, with no decoding at
+     *  all, into a ByteStore. The model uses a ByteStore if it was given one, or if it
+     *  still has its default store (plain lists in CharDataMap), empty, and no memory
+     *  budget (a ByteStore cannot be pruned); then it switches to a ByteStore, in the
+     *  same lazy mode. Other stores, and other files, are trained on as by trainMapped. */
+    public void trainBytes(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Checks that the file is ASCII, and finds where its text ends: like train,
+            // ignores the whitespace at the end of the file
+            long end = 0;
+            for (long start = 0; start < size; start += MappedCorpus.REGION_SIZE) {
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MappedCorpus.REGION_SIZE, size - start));
+                for (int i = 0; i < region.limit(); i++) {
+                    byte b = region.get(i);
+                    if (b < 0) {
+                        end = -1;
+                        break;
+                    }
+                    if (!Character.isWhitespace(b)) {
+                        end = start + i + 1;
+                    }
+                }
+                if (end == -1) {
+                    break;
+                }
+            }
+            if (end == -1 || (!(store instanceof ByteStore) && !hasDefaultStore())) {
+                trainMapped(fileName);
+                return;
+            }
+            if (!(store instanceof ByteStore)) {
+                store = new ByteStore(this.windowLength);
+                store.setLazyProbabilities(this.lazy);
+            }
+            ByteStore bytes = (ByteStore) store;
+
+            // Maps the text one region at a time; each region starts windowLength bytes
+            // early, so it holds the window of its first successor
+            int power = 1;
+            for (int i = 1; i < this.windowLength; i++) {
+                power *= 31;
+            }
+            for (long from = this.windowLength; from < end; from += MappedCorpus.REGION_SIZE) {
+                long to = Math.min(end, from + MappedCorpus.REGION_SIZE);
+                MappedByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY,
+                        from - this.windowLength, to - from + this.windowLength);
+                if (bytes.isPacked()) {
+                    long key = 0;
+                    for (int i = 0; i < this.windowLength; i++) {
+                        key = bytes.pack(key, text.get(i));
+                    }
+                    for (int i = this.windowLength; i < text.limit(); i++) {
+                        byte b = text.get(i);
+                        bytes.updatePacked(key, b);
+                        key = bytes.pack(key, b);
+                    }
+                }
+                else {
+                    // Rolls the hash of the window along the text
+                    int hash = bytes.hash(text, 0);
+                    for (int i = this.windowLength; i < text.limit(); i++) {
+                        byte b = text.get(i);
+                        bytes.update(text, i - this.windowLength, hash, b);
+                        hash = 31 * (hash - text.get(i - this.windowLength) * power) + b;
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + fileName, e);
+        }
+        store.calculateProbabilities();
+    }
+
+    // Returns true if this model still has the store it was constructed with, empty,
+    // with plain lists and no memory budget
+    private boolean hasDefaultStore() {
+        return store instanceof ListStore && ((ListStore) store).getMap() == CharDataMap
+                && ((ListStore) store).isPlain() && CharDataMap.isEmpty() && this.pruning == null;
+    }
+
+    // Adds the given counts to the store of this model, in the map's order
+    private void addCounts(LinkedHashMap<String, List> counts) {
+        for (Map.Entry<String, List> entry : counts.entrySet()) {
+            store.merge(new Window(this.windowLength, entry.getKey()), entry.getValue());
+            if (this.pruning != null) {
+                checkMemoryBudget();
+            }
+        }
+    }
+
+    /** Adds the text of the given input stream (e.g. standard input, or a socket)
+     *  to the model, reading until the stream ends. The text continues the text the
+     *  model was given by earlier incremental calls: the last window of each call is
+     *  kept for the next one. Rather than computing the probabilities of the whole
+     *  map again, only the windows whose counts changed are computed, every
+     *  INCREMENTAL_BATCH characters and at the end, so the model stays current
+     *  while a live stream is read. */
+    public void trainIncremental(In in) {
+        Window window = trailingWindow();
+        int count = 0;
+        while (in.hasNextChar()) {
+            advance(window, in.readChar());
+            if (++count % INCREMENTAL_BATCH == 0) {
+                store.calculateDirtyProbabilities();
+            }
+        }
+        store.calculateDirtyProbabilities();
+    }
+
+    /** Adds the text of the given reader to the model, reading until it ends, like
+     *  trainIncremental(In). The probabilities of the changed windows are computed
+     *  after each block that the reader returns. */
+    public void trainIncremental(Reader reader) throws IOException {
+        Window window = trailingWindow();
+        char[] buffer = new char[INCREMENTAL_BATCH];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            for (int i = 0; i < n; i++) {
+                advance(window, buffer[i]);
+            }
+            store.calculateDirtyProbabilities();
+        }
+    }
+
+    /** Adds the given text to the model, like trainIncremental(In). */
+    public void trainIncremental(CharSequence text) {
+        Window window = trailingWindow();
+        for (int i = 0; i < text.length(); i++) {
+            advance(window, text.charAt(i));
+        }
+        store.calculateDirtyProbabilities();
+    }
+
+    // Returns the window that incremental training continues from
+    private Window trailingWindow() {
+        if (this.trailing == null) {
+            this.trailing = new Window(this.windowLength);
+        }
+        return this.trailing;
+    }
+
+    // Counts c as the successor of the given window (once the window is full),
+    // and advances the window: adds c to the window's end, and deletes the window's first character.
+    // The window itself is the lookup key, so nothing is allocated unless the window is new.
+    private void advance(Window window, char c) {
+        if (window.isFull()) {
+            store.update(window, c);
+            if (this.pruning != null) {
+                checkMemoryBudget();
+            }
+        }
+        window.push(c);
+    }
+
+    /** Gives the store of this model a memory budget, in bytes: whenever training takes
+     *  the store over the budget, the store is pruned by the given policy, so the model
+     *  can learn from corpora larger than the heap would otherwise allow. The
+     *  probabilities of the pruned windows are computed again, as those of any window
+     *  whose counts changed. Only stores that support pruning (like the default
+     *  ListStore) can have a budget. */
+    public void setMemoryBudget(long bytes, PruningPolicy policy) {
+        // Fails now, rather than during training, if the store cannot be pruned
+        if (!store.canPrune()) {
+            throw new UnsupportedOperationException(store.getClass().getName() + " cannot be pruned");
+        }
+        this.memoryBudget = bytes;
+        this.pruning = policy;
+        checkMemoryBudget();
+    }
+
+    // Prunes the store if it is over the memory budget
+    private void checkMemoryBudget() {
+        if (store.memoryBytes() > this.memoryBudget) {
+            this.pruning.prune(store, this.memoryBudget);
         }
     }
 	
@@ -98,23 +571,8 @@ public class LanguageModel {
 	// characters in the given list. */
 	public static void calculateProbabilities(List probs) {				
 		// Your code goes here
-        double totalCharacters = 0.0;
-        double p, cumulativeProbability = 0.0;
-        Node current = probs.getFirstNode();
-        while (current != null) {
-            totalCharacters += current.cp.count;
-            current = current.next;
-        }
-
-        current = probs.getFirstNode();
-        while (current != null) {
-            // CharData charData = current.cp;
-            p = current.cp.count / totalCharacters;
-            cumulativeProbability += p;
-            current.cp.p = p;
-            current.cp.cp = cumulativeProbability;
-            current = current.next;
-        }
+        // Each kind of list computes them over its own representation
+        probs.calculateProbabilities();
         // double cumulativeProbability = 0.0;
 
 
@@ -148,50 +606,366 @@ public class LanguageModel {
 	public  char getRandomChar(List probs) {
 		// Your code goes here
         // randomGenerator = new Random();
-        Node current = probs.getFirstNode();
-        double r = this.randomGenerator.nextDouble();
+        return getRandomChar(probs, this.randomGenerator.nextDouble());
+	}
 
-        while (current != null) {
-            if (r < current.cp.cp) {
-                return current.cp.chr;
-            }
-            current = current.next;
-        }
-        return ' '; // Return space character if no character is found
+    // Returns the first character in the given probabilities list whose
+    // cumulative probability is greater than r.
+    static char getRandomChar(List probs, double r) {
+        return probs.getRandomChar(r);
 	}
 
     /**
 	 * Generates a random text, based on the probabilities that were learned during training. 
 	 * @param initialText - text to start with. If initialText's last substring of size numberOfLetters
 	 * doesn't appear as a key in Map, we generate no text and return only the initial text. 
+	 * Likewise, if the generation reaches a window that doesn't appear in the map (for example,
+	 * the end of the corpus), it stops there and returns the text generated so far.
+	 * The text is drawn from the model's own random number generator, which every call
+	 * shares (see LanguageModel(int, RandomGenerator)).
 	 * @param numberOfLetters - the size of text to generate
 	 * @return the generated text
 	 */
     public String generate(String initialText, int textLength) {
-        if ((initialText.length() < windowLength) || (!this.CharDataMap.containsKey(initialText.substring(initialText.length() - this.windowLength)))) {
+        return generate(initialText, textLength, this.randomGenerator);
+    }
+
+    /** Generates a random text like generate, from the given seed instead of the model's
+     *  random number generator: the same seed always gives the same text, whatever other
+     *  threads generate at the same time. Once the model is trained, any number of threads
+     *  can call this method (and the other generate methods that take their own random
+     *  state) concurrently, without contending on shared state. */
+    public String generate(String initialText, int textLength, long seed) {
+        return generate(initialText, textLength, new Random(seed));
+    }
+
+    /** Generates a random text like generate, drawing from the given random number
+     *  generator: e.g. ThreadLocalRandom.current(), for concurrent callers that do not
+     *  need reproducible texts. */
+    public String generate(String initialText, int textLength, RandomGenerator random) {
+        Window window = new Window(this.windowLength);
+        if (!start(window, initialText)) {
             return initialText; // Return initial text if it's shorter than window length
         }
+        // Generates into an array that has room for the whole text, so each character
+        // costs the same however long the text gets
+        char[] text = new char[initialText.length() + textLength];
+        initialText.getChars(0, initialText.length(), text, 0);
+        int n = 0;
+        int context;
+        while (n < textLength && (context = next(window, random)) != -1) {
+            text[initialText.length() + n++] = (char) context;
+        }
+        return new String(text, 0, initialText.length() + n);
+    }
+
+    /** Generates the texts of all the given requests, in parallel on the common
+     *  ForkJoinPool, and returns them in the order of the requests. Each text depends
+     *  only on its request's seed, so the results are the same as generating the
+     *  requests one by one. */
+    public String[] generateAll(GenerationRequest[] requests) {
+        return generateAll(requests, ForkJoinPool.commonPool());
+    }
+
+    /** Like generateAll(GenerationRequest[]), but runs the requests in the given pool. */
+    public String[] generateAll(GenerationRequest[] requests, ForkJoinPool pool) {
+        return pool.submit(() -> Arrays.stream(requests).parallel()
+                .map(request -> generate(request.initialText, request.textLength, request.seed))
+                .toArray(String[]::new)).join();
+    }
+
+    /** Like generateAll(GenerationRequest[]), but each request draws from a generator
+     *  that the given factory creates from the request's seed, e.g. the factory of
+     *  RandomGeneratorFactory.of("L64X128MixRandom"), which is faster than
+     *  java.util.Random and not synchronized. */
+    public String[] generateAll(GenerationRequest[] requests, RandomGeneratorFactory<?> factory) {
+        return generateAll(requests, factory, ForkJoinPool.commonPool());
+    }
+
+    /** Like generateAll(GenerationRequest[], RandomGeneratorFactory), but runs the
+     *  requests in the given pool. */
+    public String[] generateAll(GenerationRequest[] requests, RandomGeneratorFactory<?> factory, ForkJoinPool pool) {
+        return pool.submit(() -> Arrays.stream(requests).parallel()
+                .map(request -> generate(request.initialText, request.textLength, factory.create(request.seed)))
+                .toArray(String[]::new)).join();
+    }
+
+    /** Generates a text for each of the given initial texts, in parallel on the common
+     *  ForkJoinPool, from a single seeded generator: before anything is generated, the
+     *  generator is split once for each text, in order, so the i-th text always draws
+     *  from the i-th split. The texts therefore depend only on the generator's seed,
+     *  whatever the number of threads or the order in which they run. */
+    public String[] generateAll(String[] initialTexts, int textLength, RandomGenerator.SplittableGenerator generator) {
+        return generateAll(initialTexts, textLength, generator, ForkJoinPool.commonPool());
+    }
+
+    /** Like generateAll(String[], int, SplittableGenerator), but runs in the given pool. */
+    public String[] generateAll(String[] initialTexts, int textLength, RandomGenerator.SplittableGenerator generator,
+                                ForkJoinPool pool) {
+        RandomGenerator[] generators = new RandomGenerator[initialTexts.length];
+        for (int i = 0; i < generators.length; i++) {
+            generators[i] = generator.split();
+        }
+        return pool.submit(() -> IntStream.range(0, initialTexts.length).parallel()
+                .mapToObj(i -> generate(initialTexts[i], textLength, generators[i]))
+                .toArray(String[]::new)).join();
+    }
+
+    /** Generates a random text that continues the given initial text, like generate,
+     *  but writes only the generated characters, into the given array from the given
+     *  offset, and allocates nothing but its window: batch jobs can reuse one buffer
+     *  for every call. Generates up to length characters (fewer, if generation reaches
+     *  a window that does not appear in the model), and returns the number of
+     *  characters generated. */
+    public int generate(CharSequence initialText, char[] buffer, int offset, int length) {
+        return generate(initialText, buffer, offset, length, this.randomGenerator);
+    }
+
+    /** Like generate(CharSequence, char[], int, int), but draws from the given random
+     *  number generator, so concurrent callers can each generate into their own buffer. */
+    public int generate(CharSequence initialText, char[] buffer, int offset, int length, RandomGenerator random) {
+        Window window = new Window(this.windowLength);
+        if (!start(window, initialText)) {
+            return 0;
+        }
+        return fill(window, buffer, offset, length, random);
+    }
+
+    /** Generates a random text that continues the given initial text into the remaining
+     *  space of the given buffer (heap or direct), like generate(CharSequence, char[], int, int),
+     *  and returns the number of characters generated. The buffer's position is advanced
+     *  past them. */
+    public int generate(CharSequence initialText, CharBuffer buffer) {
+        return generate(initialText, buffer, this.randomGenerator);
+    }
+
+    /** Like generate(CharSequence, CharBuffer), but draws from the given random number
+     *  generator, so concurrent callers can each generate into their own buffer. */
+    public int generate(CharSequence initialText, CharBuffer buffer, RandomGenerator random) {
+        if (buffer.hasArray()) {
+            int n = generate(initialText, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), random);
+            buffer.position(buffer.position() + n);
+            return n;
+        }
+        Window window = new Window(this.windowLength);
+        if (!start(window, initialText)) {
+            return 0;
+        }
+        int n = 0;
+        int context;
+        while (buffer.hasRemaining() && (context = next(window, random)) != -1) {
+            buffer.put((char) context);
+            n++;
+        }
+        return n;
+    }
+
+    /** Generates a random text like generate, and streams it to the given output as it
+     *  goes, in chunks of GENERATE_CHUNK characters: the initial text, then up to
+     *  textLength generated characters. Only one chunk is held in memory, however long
+     *  the text. Returns the number of characters generated. */
+    public long generateTo(CharSequence initialText, long textLength, Appendable out) throws IOException {
+        out.append(initialText);
+        Window window = new Window(this.windowLength);
+        if (!start(window, initialText)) {
+            return 0;
+        }
+        char[] chunk = new char[GENERATE_CHUNK];
+        CharBuffer chars = CharBuffer.wrap(chunk);
+        long generated = 0;
+        int n;
+        while (generated < textLength
+                && (n = fill(window, chunk, 0, (int) Math.min(GENERATE_CHUNK, textLength - generated), this.randomGenerator)) > 0) {
+            out.append(chars, 0, n);
+            generated += n;
+        }
+        return generated;
+    }
+
+    /** Like generateTo(CharSequence, long, Appendable), but writes the chunks straight
+     *  from their array, and flushes the writer after each one, so a consumer at the
+     *  other end sees the first characters as soon as they are generated. */
+    public long generateTo(CharSequence initialText, long textLength, Writer out) throws IOException {
+        out.append(initialText);
+        Window window = new Window(this.windowLength);
+        if (!start(window, initialText)) {
+            out.flush();
+            return 0;
+        }
+        char[] chunk = new char[GENERATE_CHUNK];
+        long generated = 0;
+        int n;
+        while (generated < textLength
+                && (n = fill(window, chunk, 0, (int) Math.min(GENERATE_CHUNK, textLength - generated), this.randomGenerator)) > 0) {
+            out.write(chunk, 0, n);
+            out.flush();
+            generated += n;
+        }
+        out.flush();
+        return generated;
+    }
+
+    /** Like generateTo(CharSequence, long, Appendable), but writes the text to the given
+     *  channel (e.g. a socket or a file) as UTF-8 bytes. Each chunk is encoded into one
+     *  byte buffer, which is reused for the whole text. */
+    public long generateTo(CharSequence initialText, long textLength, WritableByteChannel out) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(GENERATE_CHUNK);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (GENERATE_CHUNK * encoder.maxBytesPerChar()));
+        for (int i = 0; i < initialText.length(); ) {
+            int n = Math.min(chars.remaining(), initialText.length() - i);
+            chars.append(initialText, i, i + n);
+            i += n;
+            encode(encoder, chars, bytes, out, false);
+        }
+        Window window = new Window(this.windowLength);
+        long generated = 0;
+        if (start(window, initialText)) {
+            int n;
+            while (generated < textLength && (n = fill(window, chars.array(), chars.position(),
+                    (int) Math.min(chars.remaining(), textLength - generated), this.randomGenerator)) > 0) {
+                chars.position(chars.position() + n);
+                generated += n;
+                encode(encoder, chars, bytes, out, false);
+            }
+        }
+        encode(encoder, chars, bytes, out, true);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain(bytes, out);
+        }
+        drain(bytes, out);
+        return generated;
+    }
+
+    // Encodes the characters written to the given buffer, and writes the bytes to the
+    // given channel. A character that waits for the other half of its surrogate pair
+    // stays in the buffer, unless this is the end of the text.
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes,
+                               WritableByteChannel out, boolean end) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, bytes, end).isOverflow()) {
+            drain(bytes, out);
+        }
+        drain(bytes, out);
+        chars.compact();
+    }
+
+    // Writes the bytes of the given buffer to the given channel, and clears the buffer
+    private static void drain(ByteBuffer bytes, WritableByteChannel out) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    // Generates up to length characters after the given window into the given array,
+    // from the given offset, drawing from the given generator, and returns the number
+    // of characters generated
+    private int fill(Window window, char[] buffer, int offset, int length, RandomGenerator random) {
+        int n = 0;
+        int context;
+        while (n < length && (context = next(window, random)) != -1) {
+            buffer[offset + n++] = (char) context;
+        }
+        return n;
+    }
+
+    // Sets the given window to the end of the given initial text, and returns true if
+    // generation can continue the text: if it is long enough, and its window appears in the model
+    private boolean start(Window window, CharSequence initialText) {
+        if (initialText.length() < this.windowLength) {
+            return false;
+        }
+        window.clear();
+        for (int i = initialText.length() - this.windowLength; i < initialText.length(); i++) {
+            window.push(initialText.charAt(i));
+        }
+        return this.store.containsKey(window);
+    }
 
-        String generatedText = initialText;
-        String window = initialText;
-        char context;
-        for (int i = 0; i < textLength; i++) {
-            context = this.getRandomChar(this.CharDataMap.get(window));
-            generatedText += context;
-            window += context;
-            window = window.substring(1);
+    // Samples the character that follows the given window with the given random number
+    // generator, advances the window past it, and returns it, or returns -1 if the window
+    // does not appear in the model
+    private int next(Window window, RandomGenerator random) {
+        int context = this.store.sample(window, random.nextDouble());
+        if (context != -1) {
+            window.push((char) context);
+        }
+        return context;
+    }
+
+    /** Turns lazy probabilities on or off. With lazy probabilities, training does not
+     *  compute the probabilities of the windows: each window computes them the first
+     *  time it is sampled after its counts changed. Most windows are never sampled,
+     *  so this takes the whole probability pass out of training, and out of every
+     *  batch of incremental training. Generated texts are the same either way. */
+    public void setLazyProbabilities(boolean lazy) {
+        this.lazy = lazy;
+        this.store.setLazyProbabilities(lazy);
+    }
+
+    /** Freezes this (trained) model for generation: copies its windows into a
+     *  read-only FrozenStore, which samples them with the given strategy. A model
+     *  frozen with Sampling.SCAN or Sampling.BINARY_SEARCH generates the same texts
+     *  as before; with Sampling.ALIAS, each character is drawn in constant time
+     *  instead of a search of the window's successors, from the same distribution. */
+    public void freeze(Sampling sampling) {
+        this.store = new FrozenStore(this.store, sampling);
+    }
+
+    /** Freezes this (trained) model for top-k sampling (see Sampling.TOP_K): each
+     *  character is drawn among the topK most frequent successors of its window (all of
+     *  them, if topK is 0), with weights count ^ (1 / temperature). A temperature of 1
+     *  keeps the counts as they are; lower ones make the text more predictable, and
+     *  higher ones more random. */
+    public void freeze(int topK, double temperature) {
+        this.store = new FrozenStore(this.store, topK, temperature);
+    }
+
+    /** Compiles this (trained) model into an automaton (see Automaton), whose generation
+     *  indexes arrays instead of looking up windows, and which handles the windows that
+     *  cannot be continued by the given policy. */
+    public Automaton compile(RestartPolicy policy) {
+        return new Automaton(this.store, this.windowLength, policy);
+    }
+
+    /** Saves this (trained) model to the given file, in the binary format of MappedModel. */
+    public void save(String fileName) {
+        MappedModel.save(this.store, this.windowLength, Paths.get(fileName));
+    }
+
+    /** Loads a model that was saved to the given file, with a given seed value.
+     *  The model generates straight from a memory mapping of the file (see MappedModel),
+     *  so loading takes about the same time whatever the size of the model. */
+    public static LanguageModel load(String fileName, int seed) {
+        MappedModel store = open(fileName);
+        return new LanguageModel(store.windowLength(), seed, store);
+    }
+
+    /** Loads a model that was saved to the given file. Good for production. */
+    public static LanguageModel load(String fileName) {
+        MappedModel store = open(fileName);
+        LanguageModel model = new LanguageModel(store.windowLength());
+        model.store = store;
+        return model;
+    }
+
+    // Maps the given model file
+    private static MappedModel open(String fileName) {
+        try {
+            return new MappedModel(Paths.get(fileName));
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not load " + fileName + ": " + e.getMessage(), e);
         }
-        return generatedText;
     }
 
     /** Returns a string representing the map of this language model. */
 	public String toString() {
-		StringBuilder str = new StringBuilder();
-		for (String key : this.CharDataMap.keySet()) {
-			List keyProbs = this.CharDataMap.get(key);
-			str.append(key + " : " + keyProbs + "\n");
-		}
-		return str.toString();
+		return this.store.toString();
 	}
 
     
@@ -203,15 +977,25 @@ public class LanguageModel {
         String fileName = args[4];
         // Create the LanguageModel object
         LanguageModel lm;
-        if (randomGeneration) {
-
-            lm = new LanguageModel(windowLength);
+        if (MappedModel.isModelFile(Paths.get(fileName))) {
+            // The file is a saved model, so there is nothing to train
+            lm = randomGeneration ? load(fileName) : load(fileName, 20);
         }
-        else{
-            lm = new LanguageModel(windowLength, 20);
+        else {
+            if (randomGeneration) {
+
+                lm = new LanguageModel(windowLength);
+            }
+            else{
+                lm = new LanguageModel(windowLength, 20);
+            }
+            // Trains the model, creating the map.
+            lm.trainMapped(fileName);
+            // Saves the trained model, if a file name was given for it
+            if (args.length > 5) {
+                lm.save(args[5]);
+            }
         }
-        // Trains the model, creating the map.
-        lm.train(fileName);
         // Generates text, and prints it.
         System.out.println(lm.generate(initialText, generatedTextLength));
         }
@@ -1,6 +1,24 @@
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.random.RandomGeneratorFactory;
+import java.util.stream.IntStream;
 
 public class LanguageModelTester {
         public static void main(String[] args) {
@@ -19,11 +37,110 @@ public class LanguageModelTester {
             case "generate":
                 result = testGenerate();
                 break;
+            case "trainMapped":
+                result = testTrainMapped();
+                break;
+            case "windowTable":
+                result = testWindowTable();
+                break;
+            case "trainParallel":
+                result = testTrainParallel();
+                break;
+            case "trainIncremental":
+                result = testTrainIncremental();
+                break;
+            case "trainFiles":
+                result = testTrainFiles();
+                break;
+            case "trieModel":
+                result = testTrieModel();
+                break;
+            case "offHeapStore":
+                result = testOffHeapStore();
+                break;
+            case "saveLoad":
+                result = testSaveLoad();
+                break;
+            case "lazyProbabilities":
+                result = testLazyProbabilities();
+                break;
+            case "trainBytes":
+                result = testTrainBytes();
+                break;
+            case "sketchStore":
+                result = testSketchStore();
+                break;
+            case "memoryBudget":
+                result = testMemoryBudget();
+                break;
+            case "alphabet":
+                result = testAlphabet();
+                break;
+            case "aliasSampling":
+                result = testAliasSampling();
+                break;
+            case "binarySearchSampling":
+                result = testBinarySearchSampling();
+                break;
+            case "generateInto":
+                result = testGenerateInto();
+                break;
+            case "generateTo":
+                result = testGenerateTo();
+                break;
+            case "concurrentGeneration":
+                result = testConcurrentGeneration();
+                break;
+            case "automaton":
+                result = testAutomaton();
+                break;
+            case "topKSampling":
+                result = testTopKSampling();
+                break;
+            case "randomGenerator":
+                result = testRandomGenerator();
+                break;
+            case "arrayStore":
+                result = testArrayStore();
+                break;
+            case "listOrder":
+                result = testListOrder();
+                break;
+            case "arrayLists":
+                result = testArrayLists();
+                break;
+            case "successorSearchBenchmark":
+                result = benchmarkSuccessorSearch();
+                break;
             case "all":
                 result = testCalculateProbabilities();
                 result = result && testGetRandomChar();
                 result = result && testTrain();
                 result = result && testGenerate();
+                result = result && testTrainMapped();
+                result = result && testWindowTable();
+                result = result && testTrainParallel();
+                result = result && testTrainIncremental();
+                result = result && testTrainFiles();
+                result = result && testTrieModel();
+                result = result && testOffHeapStore();
+                result = result && testSaveLoad();
+                result = result && testLazyProbabilities();
+                result = result && testTrainBytes();
+                result = result && testSketchStore();
+                result = result && testMemoryBudget();
+                result = result && testAlphabet();
+                result = result && testAliasSampling();
+                result = result && testBinarySearchSampling();
+                result = result && testGenerateInto();
+                result = result && testGenerateTo();
+                result = result && testConcurrentGeneration();
+                result = result && testAutomaton();
+                result = result && testTopKSampling();
+                result = result && testRandomGenerator();
+                result = result && testArrayStore();
+                result = result && testListOrder();
+                result = result && testArrayLists();
                 break;
             default:
                 break;
@@ -166,6 +283,1016 @@ public class LanguageModelTester {
         return res;
     }
 
+    // Test method for the trainMapped() method: it must build the same map as train()
+    public static boolean testTrainMapped() {
+        boolean result = true;
+        String [] files = {"jargon.txt", "shakespeareinlove.txt", "originofspecies.txt"};
+        int [] windowLengths = {1, 3, 7};
+        for (String fileName : files) {
+            for (int windowLength : windowLengths) {
+                LanguageModel expected = new LanguageModel(windowLength, 20);
+                expected.train(fileName);
+                LanguageModel actual = new LanguageModel(windowLength, 20);
+                actual.trainMapped(fileName);
+                boolean res = expected.toString().equals(actual.toString());
+                if (!res) {
+                    System.out.println("TrainMapped failed for " + fileName + " with windowLength = " + windowLength);
+                }
+                result = result && res;
+            }
+        }
+        return result;
+    }
+
+    // Test method for the WindowTable store: it must generate the same texts as the default store
+    public static boolean testWindowTable() {
+        return testStore(WindowTable::new, "WindowTable");
+    }
+
+    // Test method for the OffHeapStore store: it must generate the same texts as the default store
+    public static boolean testOffHeapStore() {
+        return testStore(OffHeapStore::new, "OffHeapStore");
+    }
+
+    // Checks that models backed by the given kind of store generate the same texts as the default store
+    private static boolean testStore(IntFunction<WindowStore> newStore, String name) {
+        boolean result = true;
+        int [] windowLengths = {2, 4, 7};
+        String [] initialTexts = {"Na", "Natu", "Natural"};
+        for (int i = 0; i < windowLengths.length; i++) {
+            LanguageModel expected = new LanguageModel(windowLengths[i], 20);
+            expected.trainMapped("originofspecies.txt");
+            LanguageModel actual = new LanguageModel(windowLengths[i], 20, newStore.apply(windowLengths[i]));
+            actual.trainMapped("originofspecies.txt");
+            boolean res = sameWindows(expected, actual)
+                    && expected.generate(initialTexts[i], 500).equals(actual.generate(initialTexts[i], 500));
+            if (!res) {
+                System.out.println(name + " failed with windowLength = " + windowLengths[i]);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Checks if the two models list the same windows, with the same successors,
+    // counts and probabilities, whatever order their stores list them in
+    private static boolean sameWindows(LanguageModel expected, LanguageModel actual) {
+        String [] expectedLines = expected.toString().split("\n");
+        String [] actualLines = actual.toString().split("\n");
+        Arrays.sort(expectedLines);
+        Arrays.sort(actualLines);
+        return Arrays.equals(expectedLines, actualLines);
+    }
+
+    // Test method for the trainParallel() method: it must build the same map as train()
+    public static boolean testTrainParallel() {
+        boolean result = true;
+        String [] files = {"jargon.txt", "shakespeareinlove.txt", "originofspecies.txt"};
+        int [] windowLengths = {1, 3, 7};
+        for (String fileName : files) {
+            for (int windowLength : windowLengths) {
+                LanguageModel expected = new LanguageModel(windowLength, 20);
+                expected.train(fileName);
+                LanguageModel actual = new LanguageModel(windowLength, 20);
+                actual.trainParallel(fileName);
+                // Read in many segments, the counts must be the same
+                LanguageModel segmented = new LanguageModel(windowLength, 20);
+                segmented.segmentSize = 4096;
+                segmented.trainParallel(fileName);
+                boolean res = expected.toString().equals(actual.toString())
+                        && expected.toString().equals(segmented.toString());
+                if (!res) {
+                    System.out.println("TrainParallel failed for " + fileName + " with windowLength = " + windowLength);
+                }
+                result = result && res;
+            }
+        }
+        // Whitespace inside the text is counted, even across segments, but not at its end
+        try {
+            File file = File.createTempFile("corpus", ".txt");
+            try {
+                BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+                bw.write("ab   \n\n   cd ef  \n g  \n\n    \n \n");
+                bw.close();
+                for (int segmentSize = 1; segmentSize <= 8; segmentSize++) {
+                    LanguageModel expected = new LanguageModel(2, 20);
+                    expected.train(file.getPath());
+                    LanguageModel actual = new LanguageModel(2, 20);
+                    actual.segmentSize = segmentSize;
+                    actual.trainParallel(file.getPath());
+                    if (!expected.toString().equals(actual.toString())) {
+                        System.out.println("TrainParallel failed with trailing whitespace and segmentSize = " + segmentSize);
+                        result = false;
+                    }
+                }
+            }
+            finally {
+                file.delete();
+            }
+        }
+        catch (IOException e) {
+            result = false;
+        }
+        return result;
+    }
+
+    // Test method for the trainIncremental() methods: feeding a text in pieces, from
+    // different sources, must build the same map as feeding it at once
+    public static boolean testTrainIncremental() {
+        String text = "you_cannot_teach_a_man_anything;_you_can_only_help_him_find_it_within_himself";
+        LanguageModel expected = new LanguageModel(2, 20);
+        expected.trainIncremental(text);
+        LanguageModel actual = new LanguageModel(2, 20);
+        try {
+            actual.trainIncremental(text.substring(0, 10));
+            actual.trainIncremental(new In(new Scanner(text.substring(10, 40))));
+            actual.trainIncremental(new StringReader(text.substring(40)));
+        } catch (Exception e) {
+            return false;
+        }
+        boolean res = expected.toString().equals(actual.toString());
+        if (!res) {
+            System.out.println("Expected: " + expected);
+            System.out.println("Actual: " + actual);
+        }
+        return res;
+    }
+
+    // Test method for the trainFiles() methods: training on several files joined by a
+    // separator must build the same map as training on their joined text
+    public static boolean testTrainFiles() {
+        String [] content = {"commitee_","elephant_have_big_ears","linked_lists_are_fun"};
+        boolean res = true;
+        File directory = null;
+        File [] files = new File[content.length];
+        try {
+            directory = Files.createTempDirectory("corpus").toFile();
+            for (int i = 0; i < content.length; i++) {
+                files[i] = new File(directory, "doc" + i + ".txt");
+                BufferedWriter bw = new BufferedWriter(new FileWriter(files[i]));
+                bw.write(content[i] + "\n");
+                bw.close();
+            }
+
+            LanguageModel expected = new LanguageModel(2, 20);
+            expected.trainIncremental(String.join("#", content));
+            // Files larger than a segment are read in segments, when their turn comes
+            int [] segmentSizes = {LanguageModel.SEGMENT_SIZE, 12, 1};
+            for (int segmentSize : segmentSizes) {
+                LanguageModel actual = new LanguageModel(2, 20);
+                actual.segmentSize = segmentSize;
+                actual.trainFiles(directory.getPath() + "/*.txt", "#", 2);
+                if (!expected.toString().equals(actual.toString())) {
+                    System.out.println("TrainFiles failed with segmentSize = " + segmentSize);
+                    System.out.println("Expected: " + expected);
+                    System.out.println("Actual: " + actual);
+                    res = false;
+                }
+            }
+        } catch (Exception e) {
+            res = false;
+        } finally {
+            for (File file : files) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+            if (directory != null) {
+                directory.delete();
+            }
+        }
+        return res;
+    }
+
+    // Test method for the TrieModel class: where the longest windows are all known, it must
+    // generate the same text as a LanguageModel; where they are not, it must back off
+    public static boolean testTrieModel() {
+        TrieModel trie = new TrieModel(7, 20);
+        trie.train("originofspecies.txt");
+        LanguageModel languageModel = new LanguageModel(7, 20);
+        languageModel.train("originofspecies.txt");
+        boolean res = trie.generate("Natural", 172).equals(languageModel.generate("Natural", 172));
+
+        // jargon.txt is short, so a LanguageModel soon reaches its last window and stops
+        TrieModel shortTrie = new TrieModel(4, 20);
+        shortTrie.train("jargon.txt");
+        res = res && shortTrie.generate("you ", 500).length() == 504;
+
+        // The empty window counts every character of the corpus, the first one too
+        String [] corpora = {"a", "abcab"};
+        for (String corpus : corpora) {
+            File file = null;
+            try {
+                file = File.createTempFile("trie", ".txt");
+                try (FileWriter writer = new FileWriter(file)) {
+                    writer.write(corpus);
+                }
+                TrieModel tiny = new TrieModel(2, 20);
+                tiny.train(file.getPath());
+                List root = tiny.lists[0];
+                int total = 0;
+                for (CharData data : root.toArray()) {
+                    total += data.count;
+                    res = res && data.count == corpus.length() - corpus.replace("" + data.chr, "").length();
+                }
+                res = res && total == corpus.length();
+                // A one-character corpus still generates, from the empty window
+                if (corpus.length() == 1) {
+                    res = res && tiny.generate("", 5).equals("aaaaa");
+                }
+            }
+            catch (IOException e) {
+                res = false;
+            }
+            finally {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+        if (!res) {
+            System.out.println("TrieModel Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the save() and load() methods: a loaded model must have the same
+    // map as the saved one, and generate the same texts
+    public static boolean testSaveLoad() {
+        boolean res;
+        try {
+            File file = File.createTempFile("model", ".lm");
+            file.deleteOnExit();
+            LanguageModel saved = new LanguageModel(7, 20);
+            saved.train("originofspecies.txt");
+            saved.save(file.getPath());
+            LanguageModel loaded = LanguageModel.load(file.getPath(), 20);
+            res = loaded.windowLength == 7
+                    && saved.toString().equals(loaded.toString())
+                    && loaded.generate("Natural", 172).equals(saved.generate("Natural", 172));
+            // A truncated file, or one whose header does not match its length, is rejected when it is opened
+            long length = file.length();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length - 1);
+                res = res && rejected(file);
+                raf.setLength(length);
+                raf.seek(12);
+                int windows = raf.readInt();
+                int successors = raf.readInt();
+                int slots = raf.readInt();
+                raf.seek(12);
+                raf.writeInt(Integer.MAX_VALUE);
+                res = res && rejected(file);
+                // An entry whose successors are not in the file is rejected when it is read
+                raf.seek(12);
+                raf.writeInt(windows);
+                for (int entry = 0; entry < windows; entry++) {
+                    raf.seek(24 + 12L * successors + 4L * slots + 12L * entry + 4);
+                    raf.writeInt(successors);
+                }
+            }
+            try {
+                LanguageModel.load(file.getPath()).generate("Natural", 10);
+                res = false;
+            }
+            catch (IllegalStateException e) {
+                res = res && e.getMessage().contains("corrupt");
+            }
+            // A hash table with no empty slot is rejected when a missing window is looked up,
+            // instead of being probed forever
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(16);
+                int successors = raf.readInt();
+                int slots = raf.readInt();
+                raf.seek(24 + 12L * successors);
+                for (int slot = 0; slot < slots; slot++) {
+                    raf.writeInt(1);
+                }
+            }
+            try {
+                LanguageModel.load(file.getPath()).generate("qqqqqqq", 10);
+                res = false;
+            }
+            catch (IllegalStateException e) {
+                res = res && e.getMessage().contains("no empty slot");
+            }
+            file.delete();
+        } catch (Exception e) {
+            res = false;
+        }
+        if (!res) {
+            System.out.println("SaveLoad Test failed");
+        }
+        return res;
+    }
+
+    // Checks that loading the given model file fails with an IOException
+    private static boolean rejected(File file) {
+        try {
+            LanguageModel.load(file.getPath());
+            System.out.println("SaveLoad failed: a damaged model file was loaded");
+            return false;
+        }
+        catch (IllegalArgumentException e) {
+            return e.getCause() instanceof IOException;
+        }
+    }
+
+    // Test method for the setLazyProbabilities() method: a lazy model, of every kind of
+    // store, must generate the same texts as an eager one, also after incremental training
+    public static boolean testLazyProbabilities() {
+        boolean result = true;
+        WindowStore [] stores = {null, new WindowTable(7), new OffHeapStore(7)};
+        for (WindowStore store : stores) {
+            LanguageModel expected = new LanguageModel(7, 20);
+            LanguageModel actual = (store == null) ? new LanguageModel(7, 20) : new LanguageModel(7, 20, store);
+            actual.setLazyProbabilities(true);
+            expected.trainMapped("originofspecies.txt");
+            actual.trainMapped("originofspecies.txt");
+            expected.trainIncremental("Natural selection, how is it possible to seize the day");
+            actual.trainIncremental("Natural selection, how is it possible to seize the day");
+            boolean res = expected.generate("Natural", 500).equals(actual.generate("Natural", 500));
+            if (!res) {
+                System.out.println("LazyProbabilities failed for " + actual.store.getClass().getName());
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the trainBytes() method: on an ASCII corpus it must switch to a
+    // ByteStore and generate the same texts as train(); on other corpora, it must fall back
+    public static boolean testTrainBytes() {
+        boolean result = true;
+        int [] windowLengths = {3, 8, 11};
+        for (int windowLength : windowLengths) {
+            LanguageModel expected = new LanguageModel(windowLength, 20);
+            expected.train("shakespeareinlove.txt");
+            LanguageModel actual = new LanguageModel(windowLength, 20);
+            actual.trainBytes("shakespeareinlove.txt");
+            String initialText = "Good morrow".substring(0, windowLength);
+            boolean res = actual.store instanceof ByteStore
+                    && expected.store.size() == actual.store.size()
+                    && expected.generate(initialText, 500).equals(actual.generate(initialText, 500));
+            if (!res) {
+                System.out.println("TrainBytes failed with windowLength = " + windowLength);
+            }
+            result = result && res;
+        }
+        // originofspecies.txt has a few non-ASCII characters
+        LanguageModel expected = new LanguageModel(7, 20);
+        expected.train("originofspecies.txt");
+        LanguageModel actual = new LanguageModel(7, 20);
+        actual.trainBytes("originofspecies.txt");
+        result = result && expected.toString().equals(actual.toString());
+        // A store the caller chose is kept, and a lazy model stays lazy
+        LanguageModel table = new LanguageModel(7, 20, new WindowTable(7));
+        table.trainBytes("shakespeareinlove.txt");
+        LanguageModel lazy = new LanguageModel(7, 20);
+        lazy.setLazyProbabilities(true);
+        lazy.trainBytes("shakespeareinlove.txt");
+        LanguageModel budget = new LanguageModel(7, 20);
+        budget.setMemoryBudget(Long.MAX_VALUE, PruningPolicy.minCount(2, 1));
+        budget.trainBytes("shakespeareinlove.txt");
+        LanguageModel lists = new LanguageModel(7, 20);
+        lists.setListOrder(ListOrder.FREQUENCY);
+        lists.trainBytes("shakespeareinlove.txt");
+        LanguageModel eager = new LanguageModel(7, 20);
+        eager.trainBytes("shakespeareinlove.txt");
+        boolean res = table.store instanceof WindowTable && budget.store instanceof ListStore
+                && lists.CharDataMap.size() > 0 && lazy.store instanceof ByteStore
+                && lazy.generate("Good mo", 500).equals(eager.generate("Good mo", 500));
+        if (!res) {
+            System.out.println("TrainBytes failed to keep the store or the lazy mode of the model");
+        }
+        result = result && res;
+        return result;
+    }
+
+    public static boolean testSketchStore() {
+        LanguageModel expected = new LanguageModel(7, 20);
+        expected.train("shakespeareinlove.txt");
+        // A sketch that materializes every window keeps exact counts, up to collisions
+        LanguageModel exact = new LanguageModel(7, 20, SketchStore.withMemory(1 << 25, 0.01, 1, Integer.MAX_VALUE));
+        exact.train("shakespeareinlove.txt");
+        boolean result = expected.generate("Good mo", 500).equals(exact.generate("Good mo", 500));
+        if (!result) {
+            System.out.println("SketchStore failed to match the exact model");
+        }
+        // A small sketch bounds the memory, and materializes only windows of the corpus
+        SketchStore sketch = SketchStore.withMemory(1 << 20, 0.01, 20, 1000);
+        LanguageModel small = new LanguageModel(7, 20, sketch);
+        small.train("shakespeareinlove.txt");
+        boolean res = sketch.sketchBytes() <= 1 << 20 && sketch.size() <= 1000
+                && small.generate("Good mo", 500).startsWith("Good mo");
+        boolean[] unknown = new boolean[1];
+        sketch.forEach((window, probs) -> unknown[0] = unknown[0] || !expected.CharDataMap.containsKey(window));
+        res = res && !unknown[0];
+        if (!res) {
+            System.out.println("SketchStore failed with a small sketch:\n" + sketch.report());
+        }
+        return result && res;
+    }
+
+    public static boolean testMemoryBudget() {
+        LanguageModel expected = new LanguageModel(7, 20);
+        expected.train("shakespeareinlove.txt");
+        long full = expected.store.memoryBytes();
+        PruningPolicy[] policies = {PruningPolicy.minCount(2, 2), PruningPolicy.topK(3)};
+        boolean result = true;
+        for (PruningPolicy policy : policies) {
+            LanguageModel pruned = new LanguageModel(7, 20);
+            pruned.setMemoryBudget(full / 4, policy);
+            pruned.train("shakespeareinlove.txt");
+            // The pruned model fits, counts no more than the full one, and its
+            // probabilities add up
+            boolean res = pruned.store.memoryBytes() <= full / 4 && pruned.store.size() > 0
+                    && pruned.generate("Good mo", 200).startsWith("Good mo");
+            for (String window : pruned.CharDataMap.keySet()) {
+                List probs = pruned.CharDataMap.get(window);
+                List all = expected.CharDataMap.get(window);
+                int total = 0;
+                for (CharData data : probs.toArray()) {
+                    total += data.count;
+                    int index = all.indexOf(data.chr);
+                    res = res && index != -1 && data.count <= all.get(index).count;
+                }
+                res = res && Math.abs(probs.get(probs.getSize() - 1).cp - 1) < 1e-9
+                        && Math.abs(probs.getFirst().p - probs.getFirst().count / (double) total) < 1e-9;
+            }
+            if (!res) {
+                System.out.println("MemoryBudget failed with the " + (policy == policies[0] ? "minCount" : "topK") + " policy");
+            }
+            result = result && res;
+        }
+        // Of successors with equal counts at the cutoff, the one first seen earliest is
+        // kept, and the most frequent one always is
+        HashMap<String, List> map = new HashMap<String, List>();
+        ListStore store = new ListStore(map);
+        Window window = new Window(2, "ab");
+        String counted = "xxxxxyyyyyzzzzzzzzz";
+        for (int i = 0; i < counted.length(); i++) {
+            store.update(window, counted.charAt(i));
+        }
+        store.prune(0, 0, 2);
+        List ties = map.get("ab");
+        boolean res = ties.getSize() == 2 && ties.getFirst().chr == 'z' && ties.getFirst().count == 9
+                && ties.get(1).chr == 'x' && ties.get(1).count == 5;
+        // A store that cannot be pruned is rejected before training
+        try {
+            new LanguageModel(7, 20, new WindowTable(7)).setMemoryBudget(1000, PruningPolicy.topK(3));
+            res = false;
+        }
+        catch (UnsupportedOperationException e) {
+        }
+        if (!res) {
+            System.out.println("MemoryBudget failed: pruning ties kept " + ties);
+        }
+        return result && res;
+    }
+
+    public static boolean testAlphabet() {
+        Alphabet origin = Alphabet.scan("originofspecies.txt");
+        boolean result = testStore(windowLength -> new WindowTable(windowLength, origin), "WindowTable with an alphabet");
+        // shakespeareinlove.txt has 7-bit ids, so windows of 9 characters are packed
+        Alphabet alphabet = Alphabet.scan("shakespeareinlove.txt");
+        boolean res = alphabet.bits() <= 7 && alphabet.canPack(9) && alphabet.unpack(alphabet.pack("Good morr"), 9).equals("Good morr")
+                && alphabet.pack("Good m\u00F6r") == -1;
+        int [] windowLengths = {9, 12};
+        for (int windowLength : windowLengths) {
+            LanguageModel expected = new LanguageModel(windowLength, 20);
+            expected.train("shakespeareinlove.txt");
+            LanguageModel actual = new LanguageModel(windowLength, 20, new WindowTable(windowLength, alphabet));
+            actual.train("shakespeareinlove.txt");
+            String initialText = "Good morrow, sir".substring(0, windowLength);
+            res = res && sameWindows(expected, actual)
+                    && expected.generate(initialText, 500).equals(actual.generate(initialText, 500));
+        }
+        if (!res) {
+            System.out.println("Alphabet failed with shakespeareinlove.txt");
+        }
+        return result && res;
+    }
+
+    public static boolean testAliasSampling() {
+        LanguageModel expected = new LanguageModel(7, 20);
+        expected.train("originofspecies.txt");
+        LanguageModel scan = new LanguageModel(7, 20);
+        scan.train("originofspecies.txt");
+        scan.freeze(Sampling.SCAN);
+        boolean result = expected.toString().equals(scan.toString())
+                && expected.generate("Natural", 500).equals(scan.generate("Natural", 500));
+        if (!result) {
+            System.out.println("AliasSampling failed: a frozen model generates other texts");
+        }
+        // The alias tables draw every successor with its probability
+        FrozenStore alias = new FrozenStore(expected.store, Sampling.ALIAS);
+        Random random = new Random(20);
+        String [] windows = {" of the", "natural", "species"};
+        int draws = 200000;
+        for (String window : windows) {
+            List probs = expected.CharDataMap.get(window);
+            int[] counts = new int[Character.MAX_VALUE + 1];
+            for (int i = 0; i < draws; i++) {
+                counts[alias.sample(new Window(7, window), random.nextDouble())]++;
+            }
+            for (CharData data : probs.toArray()) {
+                if (Math.abs(counts[data.chr] / (double) draws - data.p) > 0.005) {
+                    System.out.println("AliasSampling failed: " + data.chr + " after " + window + " was drawn "
+                            + counts[data.chr] + " times in " + draws + ", with p = " + data.p);
+                    result = false;
+                }
+            }
+        }
+        return result;
+    }
+
+    public static boolean testBinarySearchSampling() {
+        boolean result = true;
+        int [] windowLengths = {1, 3, 7};
+        String [] initialTexts = {"N", "Nat", "Natural"};
+        for (int i = 0; i < windowLengths.length; i++) {
+            LanguageModel expected = new LanguageModel(windowLengths[i], 20);
+            expected.train("originofspecies.txt");
+            LanguageModel actual = new LanguageModel(windowLengths[i], 20);
+            actual.train("originofspecies.txt");
+            actual.freeze(Sampling.BINARY_SEARCH);
+            boolean res = expected.generate(initialTexts[i], 1000).equals(actual.generate(initialTexts[i], 1000));
+            // Every window finds the characters of a scan, even on the boundaries
+            for (String window : expected.CharDataMap.keySet()) {
+                List probs = expected.CharDataMap.get(window);
+                for (CharData data : probs.toArray()) {
+                    double [] rs = {data.cp, Math.nextDown(data.cp), data.cp - data.p / 2};
+                    for (double r : rs) {
+                        res = res && actual.store.sample(new Window(windowLengths[i], window), r)
+                                == LanguageModel.getRandomChar(probs, r);
+                    }
+                }
+            }
+            if (!res) {
+                System.out.println("BinarySearchSampling failed with windowLength = " + windowLengths[i]);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    public static boolean testGenerateInto() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.trainMapped("originofspecies.txt");
+        String expected = model.generate("Natural", 200000);
+        boolean result = expected.length() == 200007;
+        // The same seed gives the same characters in a reused array, and in heap and direct buffers
+        char [] buffer = new char[200010];
+        model = new LanguageModel(7, 20);
+        model.trainMapped("originofspecies.txt");
+        int n = model.generate("Natural", buffer, 3, 200000);
+        result = result && n == 200000 && expected.substring(7).equals(new String(buffer, 3, n));
+        CharBuffer [] buffers = {CharBuffer.allocate(1000),
+                ByteBuffer.allocateDirect(2000).asCharBuffer()};
+        for (CharBuffer charBuffer : buffers) {
+            model = new LanguageModel(7, 20);
+            model.trainMapped("originofspecies.txt");
+            n = model.generate("Natural", charBuffer);
+            charBuffer.flip();
+            result = result && n == 1000 && expected.substring(7, 1007).equals(charBuffer.toString());
+        }
+        // A window that is not in the model generates nothing
+        result = result && model.generate("Natural", buffer, 0, 10) == 10
+                && model.generate("xyzzy!!", buffer, 0, 10) == 0;
+        // Threads that each bring their own generator and buffer get the texts of their seeds
+        LanguageModel shared = model;
+        boolean concurrent = IntStream.range(0, 16).parallel().allMatch(seed -> {
+            char [] chars = new char[2000];
+            CharBuffer direct = ByteBuffer.allocateDirect(4000).asCharBuffer();
+            String text = shared.generate("Natural", 2000, (long) seed).substring(7);
+            int m = shared.generate("Natural", chars, 0, 2000, new Random(seed));
+            int k = shared.generate("Natural", direct, new Random(seed));
+            direct.flip();
+            return text.equals(new String(chars, 0, m)) && text.equals(direct.toString()) && k == m;
+        });
+        result = result && concurrent;
+        if (!result) {
+            System.out.println("GenerateInto failed");
+        }
+        return result;
+    }
+
+    public static boolean testGenerateTo() {
+        boolean result = true;
+        try {
+            // More than one chunk, in an Appendable, a Writer and a channel
+            int textLength = 3 * LanguageModel.GENERATE_CHUNK + 100;
+            LanguageModel model = new LanguageModel(7, 20);
+            model.trainMapped("originofspecies.txt");
+            String expected = model.generate("Natural", textLength);
+            StringBuilder appendable = new StringBuilder();
+            model = new LanguageModel(7, 20);
+            model.trainMapped("originofspecies.txt");
+            result = model.generateTo("Natural", textLength, appendable) == textLength
+                    && expected.equals(appendable.toString());
+            StringWriter writer = new StringWriter();
+            model = new LanguageModel(7, 20);
+            model.trainMapped("originofspecies.txt");
+            result = result && model.generateTo("Natural", textLength, writer) == textLength
+                    && expected.equals(writer.toString());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            model = new LanguageModel(7, 20);
+            model.trainMapped("originofspecies.txt");
+            result = result && model.generateTo("Natural", textLength, Channels.newChannel(bytes)) == textLength
+                    && expected.equals(bytes.toString("UTF-8"));
+            // Non-ASCII characters, and a window that is not in the model
+            model = new LanguageModel(2, 20);
+            model.trainIncremental("\u00e9t\u00e9 \u00e0 \u00e9t\u00e9 \u00e0 \u00e9t\u00e9");
+            expected = model.generate("\u00e9t", 50);
+            model = new LanguageModel(2, 20);
+            model.trainIncremental("\u00e9t\u00e9 \u00e0 \u00e9t\u00e9 \u00e0 \u00e9t\u00e9");
+            bytes.reset();
+            model.generateTo("\u00e9t", 50, Channels.newChannel(bytes));
+            result = result && expected.equals(bytes.toString("UTF-8"));
+            bytes.reset();
+            result = result && model.generateTo("zz", 50, Channels.newChannel(bytes)) == 0
+                    && bytes.toString("UTF-8").equals("zz");
+        }
+        catch (IOException e) {
+            result = false;
+        }
+        if (!result) {
+            System.out.println("GenerateTo failed");
+        }
+        return result;
+    }
+
+    public static boolean testConcurrentGeneration() {
+        LanguageModel expected = new LanguageModel(7, 20);
+        expected.trainMapped("originofspecies.txt");
+        String [] initialTexts = {"Natural", "species", " of the"};
+        GenerationRequest [] requests = new GenerationRequest[300];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new GenerationRequest(initialTexts[i % initialTexts.length], 500, i);
+        }
+        // Lazy models compute their probabilities while the threads sample them
+        LanguageModel [] models = {new LanguageModel(7, 20), new LanguageModel(7, 20, new WindowTable(7))};
+        boolean result = true;
+        ForkJoinPool pool = new ForkJoinPool(8);
+        try {
+            for (LanguageModel model : models) {
+                model.setLazyProbabilities(true);
+                model.trainMapped("originofspecies.txt");
+                String [] texts = model.generateAll(requests, pool);
+                for (int i = 0; i < requests.length; i++) {
+                    result = result && texts[i].equals(expected.generate(requests[i].initialText, 500, i));
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        if (!result) {
+            System.out.println("ConcurrentGeneration failed");
+        }
+        return result;
+    }
+
+    public static boolean testAutomaton() {
+        boolean result = true;
+        int [] windowLengths = {2, 4, 7};
+        String [] initialTexts = {"Na", "Natu", "Natural"};
+        for (int i = 0; i < windowLengths.length; i++) {
+            LanguageModel model = new LanguageModel(windowLengths[i], 20);
+            model.trainMapped("originofspecies.txt");
+            Automaton automaton = model.compile(RestartPolicy.STOP);
+            boolean res = automaton.size() == model.store.size();
+            for (int seed = 0; seed < 20; seed++) {
+                res = res && automaton.generate(initialTexts[i], 1000, seed)
+                        .equals(model.generate(initialTexts[i], 1000, seed));
+            }
+            if (!res) {
+                System.out.println("Automaton failed with windowLength = " + windowLengths[i]);
+            }
+            result = result && res;
+        }
+        // The end of a corpus is a dead end, where the policies stop or restart
+        LanguageModel model = new LanguageModel(2, 20);
+        model.trainIncremental("abcde");
+        result = result && model.compile(RestartPolicy.STOP).deadEnds() == 1
+                && model.compile(RestartPolicy.STOP).generate("ab", 10, 20).equals("abcde")
+                && model.compile(RestartPolicy.RESTART_INITIAL).generate("ab", 10, 20).equals("abcdecdecdec")
+                && model.compile(RestartPolicy.RESTART_RANDOM).generate("ab", 10, 20).length() == 12;
+        if (!result) {
+            System.out.println("Automaton failed with dead ends");
+        }
+        return result;
+    }
+
+    public static boolean testTopKSampling() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.trainMapped("originofspecies.txt");
+        boolean result = true;
+        // {topK, temperature}
+        double [][] modes = {{1, 1}, {0, 1}, {3, 0.5}, {5, 2}};
+        String [] windows = {" of the", "natural", "species"};
+        Random random = new Random(20);
+        int draws = 200000;
+        for (double [] mode : modes) {
+            FrozenStore store = new FrozenStore(model.store, (int) mode[0], mode[1]);
+            for (String window : windows) {
+                // The expected probabilities: the k largest counts, raised to 1 / temperature
+                CharData [] arr = model.CharDataMap.get(window).toArray();
+                Integer [] order = new Integer[arr.length];
+                for (int i = 0; i < arr.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> arr[b].count - arr[a].count);
+                int k = (mode[0] == 0) ? arr.length : Math.min((int) mode[0], arr.length);
+                double [] weights = new double[Character.MAX_VALUE + 1];
+                double sum = 0;
+                for (int i = 0; i < k; i++) {
+                    weights[arr[order[i]].chr] = Math.pow(arr[order[i]].count, 1 / mode[1]);
+                    sum += weights[arr[order[i]].chr];
+                }
+                int [] counts = new int[Character.MAX_VALUE + 1];
+                for (int i = 0; i < draws; i++) {
+                    counts[store.sample(new Window(7, window), random.nextDouble())]++;
+                }
+                for (int c = 0; c < counts.length; c++) {
+                    if (Math.abs(counts[c] / (double) draws - weights[c] / sum) > 0.005) {
+                        System.out.println("TopKSampling failed: " + (char) c + " after " + window + " with k = "
+                                + (int) mode[0] + " and temperature " + mode[1]);
+                        result = false;
+                    }
+                }
+            }
+        }
+        // A negative k, or a temperature that is not positive, is rejected
+        double [][] invalid = {{-1, 1}, {3, 0}};
+        for (double [] mode : invalid) {
+            try {
+                new FrozenStore(model.store, (int) mode[0], mode[1]);
+                System.out.println("TopKSampling failed: k = " + (int) mode[0] + " and temperature " + mode[1]
+                        + " were accepted");
+                result = false;
+            }
+            catch (IllegalArgumentException e) {
+            }
+        }
+        return result;
+    }
+
+    public static boolean testRandomGenerator() {
+        LanguageModel model = new LanguageModel(7, 20);
+        model.train("originofspecies.txt");
+        boolean result = true;
+        // A model given a Random generates what a seeded model generates
+        LanguageModel given = new LanguageModel(7, new Random(20));
+        given.train("originofspecies.txt");
+        if (!given.generate("Natural", 300).equals(model.generate("Natural", 300))) {
+            System.out.println("RandomGenerator failed with a given Random");
+            result = false;
+        }
+        // Any other generator works, and is reproducible from its seed
+        RandomGeneratorFactory<?> factory =
+                RandomGeneratorFactory.of("L64X128MixRandom");
+        String mixed = model.generate("Natural", 300, factory.create(5));
+        if (mixed.length() != 307 || !mixed.equals(model.generate("Natural", 300, factory.create(5)))) {
+            System.out.println("RandomGenerator failed with L64X128MixRandom");
+            result = false;
+        }
+        GenerationRequest [] requests = new GenerationRequest[16];
+        String [] initialTexts = new String[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            initialTexts[i] = (i % 2 == 0) ? "Natural" : "species";
+            requests[i] = new GenerationRequest(initialTexts[i], 200, i);
+        }
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool pool = new ForkJoinPool(8);
+        String [] serial;
+        String [] parallel;
+        try {
+            String [] created = model.generateAll(requests, factory);
+            String [] pooled = model.generateAll(requests, factory, pool);
+            for (int i = 0; i < requests.length; i++) {
+                String text = model.generate(initialTexts[i], 200, factory.create(i));
+                if (!created[i].equals(text) || !pooled[i].equals(text)) {
+                    System.out.println("RandomGenerator failed with a factory, at request " + i);
+                    result = false;
+                }
+            }
+            // A split batch is the same whatever the number of threads
+            serial = model.generateAll(initialTexts, 200, new SplittableRandom(20), single);
+            parallel = model.generateAll(initialTexts, 200, new SplittableRandom(20), pool);
+        }
+        finally {
+            single.shutdown();
+            pool.shutdown();
+        }
+        String [] common = model.generateAll(initialTexts, 200, new SplittableRandom(20));
+        if (!Arrays.equals(serial, parallel) || !Arrays.equals(serial, common)) {
+            System.out.println("RandomGenerator failed: split batches differ with the number of threads");
+            result = false;
+        }
+        // The splits are independent: the texts of a batch are not all the same
+        if (serial[0].equals(serial[2])) {
+            System.out.println("RandomGenerator failed: split batches repeat");
+            result = false;
+        }
+        return result;
+    }
+
+    // Test method for the ArrayStore store: it must generate the same texts as the default store
+    public static boolean testArrayStore() {
+        boolean result = testStore(windowLength -> new ArrayStore(), "ArrayStore");
+        // Finds characters in every lane, including those whose lanes borrow from the next
+        String chars = "\u0000a\u0001\u8000\uffff\u7fffb\u0002c";
+        long [] packed = new long[3];
+        for (int i = 0; i < chars.length(); i++) {
+            packed[i / 4] |= (long) chars.charAt(i) << (16 * (i % 4));
+        }
+        for (int n = 0; n <= chars.length(); n++) {
+            for (char c : (chars + "dz\u0003").toCharArray()) {
+                int expected = chars.substring(0, n).indexOf(c);
+                if (ArrayStore.indexOf(packed, n, c) != expected) {
+                    System.out.println("ArrayStore failed: indexOf " + (int) c + " in " + n + " lanes");
+                    result = false;
+                }
+            }
+        }
+        // The same probabilities and texts in lazy mode
+        LanguageModel expected = new LanguageModel(2, 20);
+        expected.train("shakespeareinlove.txt");
+        ArrayStore store = new ArrayStore();
+        store.setLazyProbabilities(true);
+        LanguageModel lazy = new LanguageModel(2, 20, store);
+        lazy.train("shakespeareinlove.txt");
+        if (!expected.generate("Go", 1000).equals(lazy.generate("Go", 1000))) {
+            System.out.println("ArrayStore failed in lazy mode");
+            result = false;
+        }
+        store.setLazyProbabilities(false);
+        HashMap<String, String> lists = new HashMap<String, String>();
+        store.forEach((window, probs) -> lists.put(window, probs.toString()));
+        for (String window : expected.CharDataMap.keySet()) {
+            if (!expected.CharDataMap.get(window).toString().equals(lists.get(window))) {
+                System.out.println("ArrayStore failed: the successors of " + window + " differ");
+                result = false;
+                break;
+            }
+        }
+        return result;
+    }
+
+    // Test method for the setListOrder() method: the counts and probabilities of every
+    // character must be those of insertion order, only in another order
+    public static boolean testListOrder() {
+        boolean result = true;
+        LanguageModel expected = new LanguageModel(3, 20);
+        expected.train("shakespeareinlove.txt");
+        for (ListOrder order : ListOrder.values()) {
+            LanguageModel [] models = {new LanguageModel(3, 20), new LanguageModel(3, 20)};
+            for (LanguageModel model : models) {
+                model.setListOrder(order);
+            }
+            models[0].train("shakespeareinlove.txt");
+            models[1].trainParallel("shakespeareinlove.txt");
+            for (LanguageModel model : models) {
+                boolean res = model.CharDataMap.size() == expected.CharDataMap.size()
+                        && model.generate("Goo", 500).length() == 503;
+                for (String window : expected.CharDataMap.keySet()) {
+                    List probs = model.CharDataMap.get(window);
+                    res = res && probs instanceof SelfOrganizingList && probs.getSize() == expected.CharDataMap.get(window).getSize();
+                    for (CharData data : expected.CharDataMap.get(window).toArray()) {
+                        int index = (probs == null) ? -1 : probs.indexOf(data.chr);
+                        res = res && index != -1 && probs.get(index).count == data.count
+                                && Math.abs(probs.get(index).p - data.p) < 1e-12;
+                    }
+                }
+                if (!res) {
+                    System.out.println("ListOrder failed with " + order);
+                }
+                result = result && res;
+            }
+            // The order cannot change once the model is trained
+            try {
+                models[0].setListOrder(order);
+                System.out.println("ListOrder failed: the order of a trained model changed");
+                result = false;
+            }
+            catch (IllegalStateException e) {
+            }
+        }
+        return result;
+    }
+
+    // Test method for the useArrayLists() method: it must build the same map as
+    // plain lists, and generate the same texts
+    public static boolean testArrayLists() {
+        boolean result = true;
+        String [] files = {"jargon.txt", "shakespeareinlove.txt", "originofspecies.txt"};
+        int [] windowLengths = {1, 3, 7};
+        for (String fileName : files) {
+            for (int windowLength : windowLengths) {
+                LanguageModel expected = new LanguageModel(windowLength, 20);
+                expected.train(fileName);
+                LanguageModel [] models = {new LanguageModel(windowLength, 20), new LanguageModel(windowLength, 20)};
+                for (LanguageModel model : models) {
+                    model.useArrayLists();
+                }
+                models[0].train(fileName);
+                models[1].trainParallel(fileName);
+                String initialText = "Natural".substring(7 - windowLength);
+                String text = expected.generate(initialText, 500);
+                for (LanguageModel model : models) {
+                    boolean res = expected.toString().equals(model.toString())
+                            && text.equals(model.generate(initialText, 500));
+                    for (List probs : model.CharDataMap.values()) {
+                        res = res && probs instanceof CharDataArrayList;
+                    }
+                    if (!res) {
+                        System.out.println("ArrayLists failed with " + fileName + " and windowLength = " + windowLength);
+                    }
+                    result = result && res;
+                }
+                // The arrays take less memory per successor than nodes
+                result = result && models[0].store.memoryBytes() < expected.store.memoryBytes();
+            }
+        }
+        // The kind of lists can only be chosen once
+        LanguageModel ordered = new LanguageModel(7, 20);
+        ordered.setListOrder(ListOrder.FREQUENCY);
+        LanguageModel arrays = new LanguageModel(7, 20);
+        arrays.useArrayLists();
+        Runnable [] choices = {ordered::useArrayLists, arrays::useArrayLists, () -> arrays.setListOrder(ListOrder.FREQUENCY)};
+        for (Runnable choice : choices) {
+            try {
+                choice.run();
+                System.out.println("ArrayLists failed: the kind of lists was chosen twice");
+                result = false;
+            }
+            catch (IllegalStateException e) {
+            }
+        }
+        // Counts that are negative or overflow are rejected
+        CharDataArrayList list = new CharDataArrayList();
+        list.update('a', Integer.MAX_VALUE - 1);
+        list.update('a', 1);
+        int [] counts = {-1, 1};
+        for (int count : counts) {
+            try {
+                list.update('a', count);
+                System.out.println("ArrayLists failed: a count of " + count + " was accepted");
+                result = false;
+            }
+            catch (IllegalArgumentException e) {
+            }
+        }
+        result = result && list.getFirst().count == Integer.MAX_VALUE && list.getSize() == 1;
+        return result;
+    }
+
+    // Times training and sampling with the successors of each window in a linked list
+    // (ListStore) and in lanes of arrays (ArrayStore), on short windows, whose successor
+    // sets are widest. Prints the times, and fails only if the stores disagree.
+    public static boolean benchmarkSuccessorSearch() {
+        boolean result = true;
+        int [] windowLengths = {1, 2, 3};
+        int samples = 2000000;
+        for (int windowLength : windowLengths) {
+            for (int round = 0; round < 3; round++) {
+                long [] trainTimes = new long[2];
+                long [] sampleTimes = new long[2];
+                int [] checksums = new int[2];
+                for (int k = 0; k < 2; k++) {
+                    WindowStore store = (k == 0) ? null : new ArrayStore();
+                    long start = System.nanoTime();
+                    LanguageModel model = (store == null) ? new LanguageModel(windowLength, 20)
+                            : new LanguageModel(windowLength, 20, store);
+                    model.trainMapped("shakespeareinlove.txt");
+                    model.store.calculateProbabilities();
+                    trainTimes[k] = System.nanoTime() - start;
+                    String [] windows = new String[model.store.size()];
+                    int [] i = {0};
+                    model.store.forEach((window, probs) -> windows[i[0]++] = window);
+                    Arrays.sort(windows);
+                    Window [] keys = new Window[windows.length];
+                    for (int j = 0; j < windows.length; j++) {
+                        keys[j] = new Window(windowLength, windows[j]);
+                    }
+                    Random random = new Random(20);
+                    start = System.nanoTime();
+                    for (int j = 0; j < samples; j++) {
+                        checksums[k] += model.store.sample(keys[j % keys.length], random.nextDouble());
+                    }
+                    sampleTimes[k] = System.nanoTime() - start;
+                }
+                System.out.println("windowLength " + windowLength + ": train " + trainTimes[0] / 1000000
+                        + " ms (list) vs " + trainTimes[1] / 1000000 + " ms (arrays), sample "
+                        + sampleTimes[0] / samples + " ns (list) vs " + sampleTimes[1] / samples + " ns (arrays)");
+                result = result && checksums[0] == checksums[1];
+            }
+        }
+        return result;
+    }
+
     private static boolean stringEqualsNoSpaces(String s1, String s2) {
         s1 = s1.replaceAll("\\s+", "");
         s2 = s2.replaceAll("\\s+", "");
@@ -2,12 +2,20 @@
  *  (Actually, a list of Node objects, each holding a reference to a character data object.
  *  However, users of this class are not aware of the Node objects. As far as they are concerned,
  *  the class represents a list of CharData objects. Likwise, the API of the class does not
- *  mention the existence of the Node objects). */
+ *  mention the existence of the Node objects).
+ *  A subclass may keep its elements in another form, and hand out copies of them from
+ *  getFirstNode, getFirst, get, toArray and listIterator (see CharDataArrayList): it
+ *  is changed only through its own methods, such as update and calculateProbabilities. */
 public class List {
-    private Node first;
+    Node first;
 
     // The number of elements in this list
-    private int size;
+    int size;
+
+    // True if the counts in this list changed since its probabilities were
+    // last computed (maintained by ListStore). Volatile, so that a thread that
+    // sees it false also sees the probabilities computed by another thread.
+    volatile boolean dirty;
 	
     /** Constructs an empty list. */
     public List() {
@@ -95,6 +103,20 @@ public class List {
         
     }
 
+    /** Like update(chr), but counts the given number of occurrences of chr at once. */
+    public void update(char chr, int count) {
+        Node current = this.first;
+        while (current != null) {
+            if (current.cp.equals(chr)) {
+                current.cp.count += count;
+                return;
+            }
+            current = current.next;
+        }
+        this.addFirst(chr);
+        this.first.cp.count = count;
+    }
+
     /** GIVE If the given character exists in one of the CharData objects
      *  in this list, removes this CharData object from the list and returns
      *  true. Otherwise, returns false. */
@@ -167,4 +189,37 @@ public class List {
         // Returns an iterator that starts in that element
 	    return new ListIterator(current);
     }
+
+    /** Computes and sets the probabilities (p and cp fields) of all the characters in
+     *  this list (see LanguageModel.calculateProbabilities). */
+    void calculateProbabilities() {
+        double totalCharacters = 0.0;
+        double p, cumulativeProbability = 0.0;
+        Node current = this.first;
+        while (current != null) {
+            totalCharacters += current.cp.count;
+            current = current.next;
+        }
+        current = this.first;
+        while (current != null) {
+            p = current.cp.count / totalCharacters;
+            cumulativeProbability += p;
+            current.cp.p = p;
+            current.cp.cp = cumulativeProbability;
+            current = current.next;
+        }
+    }
+
+    /** Returns the first character in this list whose cumulative probability is greater
+     *  than r (see LanguageModel.getRandomChar). */
+    char getRandomChar(double r) {
+        Node current = this.first;
+        while (current != null) {
+            if (r < current.cp.cp) {
+                return current.cp.chr;
+            }
+            current = current.next;
+        }
+        return ' '; // Return space character if no character is found
+    }
 }
@@ -0,0 +1,33 @@
+/** Builds a List of the successors of a window, from its first element to its last, for
+ *  the stores that keep successors in arrays and build Lists only to list them (see
+ *  WindowStore.forEach). */
+class ListBuilder {
+
+    private final List list = new List();
+
+    // The last node of the list, or null if it is empty
+    private Node last;
+
+    /** Adds a CharData object with the given fields to the end of the list. Its
+     *  probability is its count out of the given total (0 if the total is 0). */
+    void add(char chr, int count, int total, double cp) {
+        CharData data = new CharData(chr);
+        data.count = count;
+        data.p = (total == 0) ? 0 : count / (double) total;
+        data.cp = cp;
+        Node node = new Node(data);
+        if (last == null) {
+            list.first = node;
+        }
+        else {
+            last.next = node;
+        }
+        last = node;
+        list.size++;
+    }
+
+    /** Returns the list built so far. */
+    List toList() {
+        return list;
+    }
+}
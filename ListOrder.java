@@ -0,0 +1,21 @@
+/** The orders in which a SelfOrganizingList keeps its CharData objects (see
+ *  LanguageModel.setListOrder). A plain List keeps them in insertion order: a new
+ *  character goes to the beginning, and stays where it is. The orders below move the
+ *  frequent characters towards the beginning instead, so that finding them (when
+ *  training) and sampling them (when generating) walks fewer nodes. The probabilities
+ *  are the same in every order, but the cumulative probabilities follow the order, so
+ *  a model samples different characters than in insertion order for the same seed. */
+public enum ListOrder {
+
+    /** Moves a character to the beginning of the list whenever it is counted. */
+    MOVE_TO_FRONT,
+
+    /** Swaps a character with the one before it whenever it is counted, and adds a new
+     *  character to the end. Slower to adapt than MOVE_TO_FRONT, but one rare character
+     *  cannot push the frequent ones back. */
+    TRANSPOSE,
+
+    /** Keeps the characters sorted by count, largest first, and adds a new character
+     *  after those with the same count. */
+    FREQUENCY
+}
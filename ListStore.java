@@ -0,0 +1,304 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/** A window store that maps each window, as a String, to a list of CharData objects.
+ *  This is the classic representation of a language model (see LanguageModel.CharDataMap). */
+public class ListStore implements WindowStore {
+
+    // About the bytes of heap memory taken by a window (its map entry, key and list)
+    // and by a successor (its node and CharData object), on a 64-bit JVM
+    static final int WINDOW_BYTES = 110;
+    static final int SUCCESSOR_BYTES = 56;
+
+    // Maps windows to lists of charachter data objects
+    private final HashMap<String, List> map;
+
+    // Creates the lists of the windows added through this store, whether those are
+    // plain Lists (otherwise, lists merged into this store are copied into new ones),
+    // and about the bytes of heap memory one of their successors takes
+    private final Supplier<List> lists;
+    private final boolean plain;
+    private final int successorBytes;
+
+    // The number of successors in all the lists of the map, if it is kept by this store
+    private long successors;
+
+    // The lists whose counts changed since their probabilities were last computed
+    // (not kept in lazy mode, where the dirty flag of each list is enough)
+    private final ArrayList<List> dirty = new ArrayList<List>();
+    private boolean lazy;
+
+    /** Constructs a store backed by the given map. */
+    public ListStore(HashMap<String, List> map) {
+        this(map, List::new, true, SUCCESSOR_BYTES);
+    }
+
+    /** Constructs a store backed by the given map, that keeps the successors of the
+     *  windows it adds in SelfOrganizingLists of the given order. */
+    public ListStore(HashMap<String, List> map, ListOrder order) {
+        this(map, () -> new SelfOrganizingList(order), false, SUCCESSOR_BYTES);
+    }
+
+    /** Constructs a store backed by the given map, that keeps the successors of the
+     *  windows it adds in the lists made by the given supplier (e.g. CharDataArrayList::new),
+     *  where a successor takes about the given number of bytes (see memoryBytes). */
+    public ListStore(HashMap<String, List> map, Supplier<List> lists, int successorBytes) {
+        this(map, lists, false, successorBytes);
+    }
+
+    private ListStore(HashMap<String, List> map, Supplier<List> lists, boolean plain, int successorBytes) {
+        this.map = map;
+        this.lists = lists;
+        this.plain = plain;
+        this.successorBytes = successorBytes;
+    }
+
+    // Returns true if the lists of this store are plain Lists
+    boolean isPlain() {
+        return plain;
+    }
+
+    // Returns a new, empty list, of the kind this store keeps
+    private List newList() {
+        return lists.get();
+    }
+
+    /** Returns the map of this store. */
+    public HashMap<String, List> getMap() {
+        return map;
+    }
+
+    public void update(Window window, char chr) {
+        List probs = map.get(window);
+        if (probs == null) {
+            // If the window was not found in the map, creates a new list of character data objects
+            probs = newList();
+            map.put(window.toString(), probs);
+        }
+        int size = probs.getSize();
+        probs.update(chr);
+        successors += probs.getSize() - size;
+        markDirty(probs);
+    }
+
+    public void merge(Window window, List later) {
+        List probs = map.get(window);
+        if (probs == null && !plain) {
+            // Copies the successors of the window into a list of the kind this store keeps
+            probs = newList();
+            map.put(window.toString(), probs);
+        }
+        if (probs == null) {
+            map.put(window.toString(), later);
+            successors += later.getSize();
+            markDirty(later);
+            return;
+        }
+        int size = probs.getSize();
+        addAll(probs, later);
+        successors += probs.getSize() - size;
+        markDirty(probs);
+    }
+
+    // Remembers that the probabilities of the given list must be computed again
+    private void markDirty(List probs) {
+        if (!probs.dirty) {
+            probs.dirty = true;
+            if (!lazy) {
+                dirty.add(probs);
+            }
+        }
+    }
+
+    // Computes the probabilities of the given list, if its counts changed. Concurrent
+    // samplers of a dirty list take turns, and only the first one computes them.
+    static void finish(List probs) {
+        if (probs.dirty) {
+            synchronized (probs) {
+                if (probs.dirty) {
+                    LanguageModel.calculateProbabilities(probs);
+                    probs.dirty = false;
+                }
+            }
+        }
+    }
+
+    /** Adds the counts of the second list, which were counted after those of the first,
+     *  to the first list, keeping the order a single list would have had. */
+    static void addAll(List probs, List later) {
+        // The characters first seen earliest are at the end of the list
+        CharData[] arr = later.toArray();
+        for (int i = arr.length - 1; i >= 0; i--) {
+            probs.update(arr[i].chr, arr[i].count);
+        }
+    }
+
+    public void calculateProbabilities() {
+        if (lazy) {
+            return;
+        }
+        for (List probs : map.values()) {
+            LanguageModel.calculateProbabilities(probs);
+            probs.dirty = false;
+        }
+        dirty.clear();
+    }
+
+    public void calculateProbabilitiesInParallel() {
+        if (lazy) {
+            return;
+        }
+        map.values().parallelStream().forEach(LanguageModel::calculateProbabilities);
+        for (List probs : dirty) {
+            probs.dirty = false;
+        }
+        dirty.clear();
+    }
+
+    public void calculateDirtyProbabilities() {
+        for (List probs : dirty) {
+            finish(probs);
+        }
+        dirty.clear();
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+        this.lazy = lazy;
+        if (!lazy) {
+            for (List probs : map.values()) {
+                finish(probs);
+            }
+            dirty.clear();
+        }
+    }
+
+    public boolean containsKey(Window window) {
+        return map.containsKey(window);
+    }
+
+    public int sample(Window window, double r) {
+        List probs = map.get(window);
+        if (probs == null) {
+            return -1;
+        }
+        finish(probs);
+        return LanguageModel.getRandomChar(probs, r);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public void forEach(BiConsumer<String, List> action) {
+        map.forEach((window, probs) -> {
+            finish(probs);
+            action.accept(window, probs);
+        });
+    }
+
+    public boolean canPrune() {
+        return true;
+    }
+
+    /** Returns an estimate of the heap memory taken by the windows that were added
+     *  through this store (not those that were in its map to begin with). */
+    public long memoryBytes() {
+        return (long) map.size() * WINDOW_BYTES + successors * successorBytes;
+    }
+
+    public int[] windowCounts() {
+        int[] counts = new int[map.size()];
+        int i = 0;
+        for (List probs : map.values()) {
+            counts[i++] = count(probs);
+        }
+        return counts;
+    }
+
+    public int prune(int minCount, int minSuccessorCount, int maxSuccessors) {
+        int removed = 0;
+        Iterator<Map.Entry<String, List>> entries = map.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, List> entry = entries.next();
+            List probs = entry.getValue();
+            if (count(probs) < minCount) {
+                entries.remove();
+                successors -= probs.getSize();
+                probs.dirty = false;
+                removed++;
+                continue;
+            }
+            List pruned = prune(probs, minSuccessorCount, maxSuccessors);
+            if (pruned != probs) {
+                entry.setValue(pruned);
+                successors -= probs.getSize() - pruned.getSize();
+                probs.dirty = false;
+                markDirty(pruned);
+            }
+        }
+        // Forgets the lists that are no longer in the map
+        dirty.removeIf(probs -> !probs.dirty);
+        return removed;
+    }
+
+    // Returns a list of the successors of the given list that are counted at least
+    // minSuccessorCount times and are among the maxSuccessors most frequent (if it is
+    // not 0), in the same order, or the given list itself if it keeps them all. Of
+    // successors with equal counts, those first seen earliest rank higher.
+    private List prune(List probs, int minSuccessorCount, int maxSuccessors) {
+        CharData[] arr = probs.toArray();
+        // The positions of the successors, most frequent first; the characters first
+        // seen earliest are at the end of the list
+        Integer[] ranks = new Integer[arr.length];
+        for (int i = 0; i < arr.length; i++) {
+            ranks[i] = i;
+        }
+        Arrays.sort(ranks, (a, b) -> (arr[a].count != arr[b].count)
+                ? Integer.compare(arr[b].count, arr[a].count) : Integer.compare(b, a));
+        boolean[] keep = new boolean[arr.length];
+        int kept = 0;
+        for (int rank = 0; rank < ranks.length; rank++) {
+            int i = ranks[rank];
+            // Always keeps the most frequent successor
+            if (rank == 0 || (arr[i].count >= minSuccessorCount && (maxSuccessors == 0 || kept < maxSuccessors))) {
+                keep[i] = true;
+                kept++;
+            }
+        }
+        if (kept == arr.length) {
+            return probs;
+        }
+        List pruned = newList();
+        for (int i = arr.length - 1; i >= 0; i--) {
+            if (keep[i]) {
+                pruned.update(arr[i].chr, arr[i].count);
+            }
+        }
+        return pruned;
+    }
+
+    // Returns the number of times the window of the given list was counted
+    private static int count(List probs) {
+        int count = 0;
+        for (CharData data : probs.toArray()) {
+            count += data.count;
+        }
+        return count;
+    }
+
+    /** Returns a string representing the map of this store. */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (String key : map.keySet()) {
+            List keyProbs = map.get(key);
+            finish(keyProbs);
+            str.append(key + " : " + keyProbs + "\n");
+        }
+        return str.toString();
+    }
+}
@@ -24,6 +24,12 @@ public class ListTester {
             case "remove":
                 result = testRemove();
                 break;
+            case "selfOrganizing":
+                result = testSelfOrganizing();
+                break;
+            case "arrayList":
+                result = testArrayList();
+                break;
             
             case "all":
                 result = testAddFirst();
@@ -32,6 +38,8 @@ public class ListTester {
                 result = result && testGet();
                 result = result && testUpdate();
                 result = result && testRemove();
+                result = result && testSelfOrganizing();
+                result = result && testArrayList();
                 break; 
             default:
                 break;
@@ -257,4 +265,165 @@ public class ListTester {
         return true;
     }
     
+    public static boolean testSelfOrganizing() {
+        boolean result = true;
+        String [] testWords = {"commitee_","Hello_World", "Java_", "linked_lists_are_fun", "lexicographic_order",
+                "aaaaabbbbccccccccddeeeeeeeeeeeeefff"};
+        for (ListOrder order : ListOrder.values()) {
+            for (String w : testWords) {
+                SelfOrganizingList yourSolution = new SelfOrganizingList(order);
+                for (int j = 0; j < w.length(); j++) {
+                    char c = w.charAt(j);
+                    int index = yourSolution.indexOf(c);
+                    yourSolution.update(c);
+                    boolean res = testUpdateCase(yourSolution, w, j, c) && testSelfOrganizingCase(yourSolution, order, c, index);
+                    if (!res) {
+                        System.out.println("Order: " + order + ", Word: " + w + ", Index: " + j);
+                        System.out.println("Actual: " + yourSolution);
+                    }
+                    result = result && res;
+                }
+            }
+            // Counting several occurrences at once keeps the counts, and the frequency order
+            SelfOrganizingList yourSolution = new SelfOrganizingList(order);
+            String w = "abcabdaeb";
+            for (int j = 0; j < w.length(); j++) {
+                yourSolution.update(w.charAt(j), j + 1);
+            }
+            int [] counts = {1 + 4 + 7, 2 + 5 + 9, 3, 6, 8};
+            boolean res = yourSolution.getSize() == counts.length;
+            for (int k = 0; k < counts.length; k++) {
+                int index = yourSolution.indexOf("abcde".charAt(k));
+                res = res && index != -1 && yourSolution.get(index).count == counts[k];
+            }
+            if (order == ListOrder.FREQUENCY) {
+                res = res && isSortedByCount(yourSolution);
+            }
+            if (!res) {
+                System.out.println("Order: " + order + ", counting several at once: " + yourSolution);
+            }
+            result = result && res;
+        }
+        if (!result){
+            System.out.println("SelfOrganizing Test failed");
+        }
+        return result;
+    }
+
+    // Checks that the given list has counted the character at the given index of the
+    // given word as many times as it appears up to the index, and has no duplicates
+    private static boolean testUpdateCase (List yourSolution, String sol, int index, char c) {
+        CharData [] arr = yourSolution.toArray();
+        String chars = "";
+        for (CharData data : arr) {
+            if (chars.indexOf(data.chr) != -1) {
+                return false;
+            }
+            chars += data.chr;
+        }
+        int i = yourSolution.indexOf(c);
+        return arr.length == yourSolution.getSize() && i != -1 && arr[i].count == countCharUpToIndex(sol, c, index) + 1;
+    }
+
+    // Checks that the given character, which was at the given index before it was
+    // counted (-1 if new), moved where the given order puts it
+    private static boolean testSelfOrganizingCase (List yourSolution, ListOrder order, char c, int index) {
+        int now = yourSolution.indexOf(c);
+        switch (order) {
+            case MOVE_TO_FRONT:
+                return now == 0;
+            case TRANSPOSE:
+                return now == ((index == -1) ? yourSolution.getSize() - 1 : Math.max(0, index - 1));
+            default:
+                return isSortedByCount(yourSolution);
+        }
+    }
+
+    private static boolean isSortedByCount (List yourSolution) {
+        CharData [] arr = yourSolution.toArray();
+        for (int i = 1; i < arr.length; i++) {
+            if (arr[i - 1].count < arr[i].count) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean testArrayList() {
+        boolean result = true;
+        String [] testWords = {"commitee_","Hello_World", "Java_", "linked_lists_are_fun", "lexicographic_order"};
+        char [][] removeChars = {
+            {'m','e','_','y'},
+            {'H','l','_','r'},
+            {'a','v','_', 'J'},
+            {'l','i','_','r'},
+            {'o','r','_','g'},
+        };
+        for (int i = 0; i < testWords.length; i++) {
+            String w = testWords[i];
+            List solution = new List();
+            CharDataArrayList yourSolution = new CharDataArrayList();
+            boolean res = yourSolution.toString().equals("()") && yourSolution.listIterator(0) == null;
+            for (int j = 0; j < w.length(); j++) {
+                solution.update(w.charAt(j));
+                yourSolution.update(w.charAt(j), 1);
+                res = res && yourSolution.getSize() == solution.getSize() && yourSolution.getFirst().equals(solution.getFirst().chr);
+            }
+            LanguageModel.calculateProbabilities(solution);
+            LanguageModel.calculateProbabilities(yourSolution);
+            res = res && yourSolution.toString().equals(solution.toString())
+                    && Arrays.toString(yourSolution.toArray()).equals(Arrays.toString(solution.toArray()));
+            for (int k = 0; k < solution.getSize(); k++) {
+                res = res && yourSolution.get(k).toString().equals(solution.get(k).toString())
+                        && yourSolution.indexOf(solution.get(k).chr) == k;
+            }
+            for (int k = 0; k < solution.getSize(); k++) {
+                ListIterator expected = solution.listIterator(k);
+                ListIterator actual = yourSolution.listIterator(k);
+                while (expected.hasNext()) {
+                    res = res && actual.hasNext() && actual.next().toString().equals(expected.next().toString());
+                }
+                res = res && !actual.hasNext();
+            }
+            // The nodes hold copies of the elements, in list order
+            int n = 0;
+            for (Node node = yourSolution.getFirstNode(); node != null; node = node.next) {
+                res = res && node.cp.toString().equals(solution.get(n++).toString());
+            }
+            res = res && n == solution.getSize();
+            for (double r = 0; r < 1; r += 0.01) {
+                res = res && LanguageModel.getRandomChar(yourSolution, r) == LanguageModel.getRandomChar(solution, r);
+            }
+            res = res && yourSolution.indexOf('#') == -1;
+            // Removing keeps the order of the other characters
+            String chars = "";
+            for (CharData data : yourSolution.toArray()) {
+                chars += data.chr;
+            }
+            for (char c : removeChars[i]) {
+                boolean removed = chars.indexOf(c) != -1;
+                chars = chars.replace("" + c, "");
+                res = res && yourSolution.remove(c) == removed && yourSolution.getSize() == chars.length();
+            }
+            for (int k = 0; k < chars.length(); k++) {
+                res = res && yourSolution.get(k).equals(chars.charAt(k));
+            }
+            try {
+                yourSolution.get(yourSolution.getSize());
+                res = false;
+            }
+            catch (IndexOutOfBoundsException e) {
+            }
+            if (!res) {
+                System.out.println("Word: " + w);
+                System.out.println("Expected: " + solution);
+                System.out.println("Actual: " + yourSolution);
+            }
+            result = result && res;
+        }
+        if (!result){
+            System.out.println("ArrayList Test failed");
+        }
+        return result;
+    }
 }
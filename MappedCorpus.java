@@ -0,0 +1,111 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Reads a corpus file through memory-mapped regions, and decodes it (as UTF-8,
+ *  like In does) into large blocks of characters. Files larger than a single
+ *  mapping can hold are mapped one region at a time. */
+public class MappedCorpus implements Closeable {
+
+    // The number of bytes mapped at a time
+    static final int REGION_SIZE = 1 << 26;
+
+    // The number of characters decoded at a time
+    static final int BLOCK_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder;
+    private final CharBuffer block;
+
+    // The currently mapped region, and its offset in the file
+    private MappedByteBuffer region;
+    private long regionStart;
+    private boolean finished;
+
+    /** Opens the given file for reading. */
+    public MappedCorpus(String fileName) throws IOException {
+        this(Paths.get(fileName));
+    }
+
+    /** Opens the given file for reading. */
+    public MappedCorpus(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        // Malformed input is replaced, as the Scanner inside In does
+        decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        block = CharBuffer.allocate(BLOCK_SIZE);
+        map(0);
+    }
+
+    /** Returns the size of the file, in bytes. */
+    public long size() {
+        return size;
+    }
+
+    /** Decodes the next block of characters and returns it, ready for reading,
+     *  or returns null if the whole file has been read. The returned buffer is
+     *  reused by the next call. */
+    public CharBuffer nextBlock() throws IOException {
+        block.clear();
+        while (block.hasRemaining() && !finished) {
+            boolean lastRegion = regionStart + region.limit() == size;
+            CoderResult result = decoder.decode(region, block, lastRegion);
+            if (result.isOverflow()) {
+                break;
+            }
+            if (lastRegion) {
+                finished = !decoder.flush(block).isOverflow();
+            }
+            else {
+                // Remaps from the first byte not decoded yet, so a character
+                // split between two regions is decoded whole
+                map(regionStart + region.position());
+            }
+        }
+        block.flip();
+        return block.hasRemaining() ? block : null;
+    }
+
+    // Maps the region of the file that starts at the given offset
+    private void map(long start) throws IOException {
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+    }
+
+    /** Closes the file. */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Returns the full text of the given file. */
+    public static String readAll(String fileName) {
+        return readAll(Paths.get(fileName));
+    }
+
+    /** Returns the full text of the given file. */
+    public static String readAll(Path file) {
+        try (MappedCorpus corpus = new MappedCorpus(file)) {
+            StringBuilder text = new StringBuilder((int) Math.min(corpus.size(), Integer.MAX_VALUE - 8));
+            CharBuffer block;
+            while ((block = corpus.nextBlock()) != null) {
+                text.append(block);
+            }
+            return text.toString();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + file, e);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+
+/** A trained model saved in a binary file, and served straight from a memory mapping
+ *  of that file: loading reads nothing but the header, and generating reads only the
+ *  pages of the windows it visits. Several processes that load the same file share
+ *  its pages in the operating system's page cache. The store is read-only.
+ *
+ *  The file format (version 1, all numbers big-endian):
+ *    header:      magic ("LMDL"), version, window length, number of windows (W),
+ *                 number of successors (S), number of hash slots (H), 4 bytes each
+ *    cp:          S doubles, the cumulative probabilities of the successors
+ *    count:       S ints, the counts of the successors
+ *    slots:       H ints, an open-addressing hash table of windows (entry number + 1, or 0)
+ *    entries:     W records of 3 ints: the String hash code of the window, the index of
+ *                 its first successor, and its number of successors
+ *    chr:         S chars, the successors; those of a window are consecutive, in sampling order
+ *    windows:     W x window length chars, the characters of the windows
+ *  A file can be up to 2 GB long. Opening a file checks that its sections add up to
+ *  exactly its length; the entries are checked against the sections as they are read. */
+public class MappedModel implements WindowStore {
+
+    static final int MAGIC = 0x4C4D444C;
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int windowLength;
+    private final int windows;
+    private final int successors;
+    private final int mask;
+
+    // Offsets of the sections of the file
+    private final int cpOffset;
+    private final int countOffset;
+    private final int slotOffset;
+    private final int entryOffset;
+    private final int chrOffset;
+    private final int windowOffset;
+
+    /** Maps the given model file. Throws an IOException if the file cannot be read, or
+     *  is not a language model file, or is truncated or corrupt. */
+    public MappedModel(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a language model file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported version " + buffer.getInt(4));
+        }
+        windowLength = buffer.getInt(8);
+        windows = buffer.getInt(12);
+        successors = buffer.getInt(16);
+        int slots = buffer.getInt(20);
+        if (windowLength < 1 || windows < 0 || successors < 0 || Integer.bitCount(slots) != 1 || slots <= windows) {
+            throw new IOException(file + " is corrupt: its header has window length " + windowLength + ", "
+                    + windows + " windows, " + successors + " successors and " + slots + " slots");
+        }
+        // The sections must fill the file exactly
+        long length = HEADER_BYTES + 8L * successors + 4L * successors + 4L * slots + 12L * windows
+                + 2L * successors + 2L * windows * windowLength;
+        if (length != buffer.capacity()) {
+            throw new IOException(file + " is " + (length > buffer.capacity() ? "truncated" : "corrupt") + ": its header needs "
+                    + length + " bytes, but it has " + buffer.capacity());
+        }
+        mask = slots - 1;
+        cpOffset = HEADER_BYTES;
+        countOffset = cpOffset + 8 * successors;
+        slotOffset = countOffset + 4 * successors;
+        entryOffset = slotOffset + 4 * slots;
+        chrOffset = entryOffset + 12 * windows;
+        windowOffset = chrOffset + 2 * successors;
+    }
+
+    /** Returns the window length of the saved model. */
+    public int windowLength() {
+        return windowLength;
+    }
+
+    /** Checks if the given file starts like a model file. */
+    public static boolean isModelFile(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] magic = in.readNBytes(4);
+            return magic.length == 4 && ((magic[0] & 0xFF) << 24 | (magic[1] & 0xFF) << 16
+                    | (magic[2] & 0xFF) << 8 | (magic[3] & 0xFF)) == MAGIC;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Saves the given store to the given file. */
+    public static void save(WindowStore store, int windowLength, Path file) {
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<List> lists = new ArrayList<List>();
+        store.forEach((window, probs) -> {
+            keys.add(window);
+            lists.add(probs);
+        });
+        int successors = 0;
+        for (List probs : lists) {
+            successors += probs.getSize();
+        }
+        int slots = Integer.highestOneBit(Math.max(keys.size(), 1) * 2) * 2;
+        int[] table = new int[slots];
+        for (int entry = 0; entry < keys.size(); entry++) {
+            int slot = Window.mix(keys.get(entry).hashCode()) & (slots - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            table[slot] = entry + 1;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(windowLength);
+            out.writeInt(keys.size());
+            out.writeInt(successors);
+            out.writeInt(slots);
+            for (List probs : lists) {
+                for (CharData data : probs.toArray()) {
+                    out.writeDouble(data.cp);
+                }
+            }
+            for (List probs : lists) {
+                for (CharData data : probs.toArray()) {
+                    out.writeInt(data.count);
+                }
+            }
+            for (int slot : table) {
+                out.writeInt(slot);
+            }
+            int first = 0;
+            for (int entry = 0; entry < keys.size(); entry++) {
+                out.writeInt(keys.get(entry).hashCode());
+                out.writeInt(first);
+                out.writeInt(lists.get(entry).getSize());
+                first += lists.get(entry).getSize();
+            }
+            for (List probs : lists) {
+                for (CharData data : probs.toArray()) {
+                    out.writeChar(data.chr);
+                }
+            }
+            for (String key : keys) {
+                out.writeChars(key);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not write " + file, e);
+        }
+    }
+
+    public void update(Window window, char chr) {
+        throw new UnsupportedOperationException("A mapped model is read-only");
+    }
+
+    public void merge(Window window, List successors) {
+        throw new UnsupportedOperationException("A mapped model is read-only");
+    }
+
+    // The probabilities were computed before the model was saved
+    public void calculateProbabilities() {
+    }
+
+    public void calculateProbabilitiesInParallel() {
+    }
+
+    public void calculateDirtyProbabilities() {
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+    }
+
+    public boolean containsKey(Window window) {
+        return find(window) != -1;
+    }
+
+    public int sample(Window window, double r) {
+        int entry = find(window);
+        if (entry == -1) {
+            return -1;
+        }
+        int first = first(entry);
+        int end = first + buffer.getInt(entryOffset + 12 * entry + 8);
+        for (int s = first; s < end; s++) {
+            if (r < buffer.getDouble(cpOffset + 8 * s)) {
+                return buffer.getChar(chrOffset + 2 * s);
+            }
+        }
+        return ' '; // Return space character if no character is found
+    }
+
+    public int size() {
+        return windows;
+    }
+
+    public void forEach(BiConsumer<String, List> action) {
+        for (int entry = 0; entry < windows; entry++) {
+            StringBuilder window = new StringBuilder(windowLength);
+            for (int i = 0; i < windowLength; i++) {
+                window.append(buffer.getChar(windowOffset + 2 * (entry * windowLength + i)));
+            }
+            int first = first(entry);
+            int n = buffer.getInt(entryOffset + 12 * entry + 8);
+            int total = 0;
+            for (int s = first; s < first + n; s++) {
+                total += buffer.getInt(countOffset + 4 * s);
+            }
+            ListBuilder probs = new ListBuilder();
+            for (int s = first; s < first + n; s++) {
+                probs.add(buffer.getChar(chrOffset + 2 * s), buffer.getInt(countOffset + 4 * s), total,
+                        buffer.getDouble(cpOffset + 8 * s));
+            }
+            action.accept(window.toString(), probs.toList());
+        }
+    }
+
+    public String toString() {
+        return listWindows();
+    }
+
+    // Returns the entry number of the given window, or -1 if it is not in the model
+    private int find(Window window) {
+        int hash = window.hashCode();
+        int slot = Window.mix(hash) & mask;
+        int value;
+        int probes = 0;
+        while ((value = buffer.getInt(slotOffset + 4 * slot)) != 0) {
+            // A valid table always has an empty slot, so a full one is corrupt
+            if (++probes > mask + 1) {
+                throw corrupt("the hash table has no empty slot");
+            }
+            int entry = value - 1;
+            if (entry < 0 || entry >= windows) {
+                throw corrupt("slot " + slot + " holds entry " + entry);
+            }
+            if (buffer.getInt(entryOffset + 12 * entry) == hash && keyEquals(entry, window)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Returns the first successor of the given entry, after checking that all the
+    // successors of the entry are in the file
+    private int first(int entry) {
+        int first = buffer.getInt(entryOffset + 12 * entry + 4);
+        int n = buffer.getInt(entryOffset + 12 * entry + 8);
+        if (first < 0 || n < 0 || first > successors - n) {
+            throw corrupt("entry " + entry + " has successors " + first + " to " + (first + n));
+        }
+        return first;
+    }
+
+    // Returns the exception to throw when a part of the file that was read is not valid
+    private IllegalStateException corrupt(String problem) {
+        return new IllegalStateException(file + " is corrupt: " + problem + ", of " + successors + " successors and "
+                + windows + " windows");
+    }
+
+    // Checks if the characters of the given entry are those of the given window
+    private boolean keyEquals(int entry, Window window) {
+        int offset = windowOffset + 2 * entry * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (buffer.getChar(offset + 2 * i) != window.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
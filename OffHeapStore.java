@@ -0,0 +1,306 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+/** A window store that keeps all of its data outside the Java heap, in direct
+ *  ByteBuffers, so that the garbage collector never has to trace it: the heap
+ *  footprint of the store is a handful of objects, whatever the size of the model.
+ *
+ *  The layout is the one of WindowTable, with each of its arrays turned into a
+ *  growable block of native memory (an arena):
+ *    slots:      the open-addressing hash table, an int per slot (entry number + 1, or 0)
+ *    entries:    a record per window: the packed window (8 bytes), or its hash (4 bytes)
+ *                and its characters (2 bytes each), then the first successor and the
+ *                total count (4 bytes each)
+ *    successors: a record per successor: char (2), count (4), next (4) and cumulative
+ *                probability (8), 18 bytes in all
+ *    dirty:      the entry numbers of the windows whose counts changed
+ *  Like WindowTable, the successors of a window are linked with new characters at the
+ *  front, so the store samples the same characters as a List.
+ *
+ *  A ByteBuffer holds up to 2 GB, which limits a store to about 119 million successors.
+ *  Direct memory is also limited by -XX:MaxDirectMemorySize (by default, the size of the heap). */
+public class OffHeapStore extends EntryStore {
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int SUCCESSOR_BYTES = 18;
+
+    private final int windowLength;
+    private final boolean packed;
+
+    // Offsets of the fields in an entry record, and its size
+    private final int headOffset;
+    private final int totalOffset;
+    private final int entryBytes;
+
+    private Arena slots;
+    private int slotCount;
+    private Arena entries;
+    private int size;
+    private Arena successorRecords;
+    private int successors;
+    private Arena dirty;
+    private int dirtyCount;
+
+    /** Constructs an empty store for windows of the given length. */
+    public OffHeapStore(int windowLength) {
+        this.windowLength = windowLength;
+        this.packed = windowLength * Window.CHAR_BITS <= Long.SIZE;
+        headOffset = packed ? 8 : 4 + 2 * windowLength;
+        totalOffset = headOffset + 4;
+        entryBytes = totalOffset + 4;
+        slotCount = INITIAL_CAPACITY;
+        slots = new Arena(slotCount * 4);
+        entries = new Arena(INITIAL_CAPACITY * entryBytes);
+        successorRecords = new Arena(INITIAL_CAPACITY * SUCCESSOR_BYTES);
+        dirty = new Arena(INITIAL_CAPACITY * 4);
+    }
+
+    public void update(Window window, char c) {
+        add(find(window, true), c, 1);
+    }
+
+    public void merge(Window window, List successors) {
+        int entry = find(window, true);
+        CharData[] arr = successors.toArray();
+        for (int i = arr.length - 1; i >= 0; i--) {
+            add(entry, arr[i].chr, arr[i].count);
+        }
+    }
+
+    // Adds n occurrences of c to the successors of the given entry
+    private void add(int entry, char c, int n) {
+        ByteBuffer e = entries.buffer;
+        int record = entry * entryBytes;
+        if (e.getInt(record + totalOffset) != 0) {
+            e.putInt(record + totalOffset, 0);
+            markDirty(entry);
+        }
+        ByteBuffer s = successorRecords.buffer;
+        for (int succ = e.getInt(record + headOffset); succ != -1; succ = s.getInt(succ * SUCCESSOR_BYTES + 6)) {
+            int at = succ * SUCCESSOR_BYTES;
+            if (s.getChar(at) == c) {
+                s.putInt(at + 2, s.getInt(at + 2) + n);
+                return;
+            }
+        }
+        successorRecords.ensure((long) (successors + 1) * SUCCESSOR_BYTES);
+        s = successorRecords.buffer;
+        int at = successors * SUCCESSOR_BYTES;
+        s.putChar(at, c);
+        s.putInt(at + 2, n);
+        s.putInt(at + 6, e.getInt(record + headOffset));
+        s.putDouble(at + 10, 0);
+        e.putInt(record + headOffset, successors++);
+    }
+
+    // Remembers that the probabilities of the given entry must be computed again
+    private void markDirty(int entry) {
+        if (lazy) {
+            return;
+        }
+        dirty.ensure((long) (dirtyCount + 1) * 4);
+        dirty.buffer.putInt(dirtyCount++ * 4, entry);
+    }
+
+    public void calculateProbabilities() {
+        if (lazy) {
+            return;
+        }
+        for (int entry = 0; entry < size; entry++) {
+            calculateProbabilities(entry);
+        }
+        dirtyCount = 0;
+    }
+
+    public void calculateProbabilitiesInParallel() {
+        if (lazy) {
+            return;
+        }
+        IntStream.range(0, size).parallel().forEach(this::calculateProbabilities);
+        dirtyCount = 0;
+    }
+
+    public void calculateDirtyProbabilities() {
+        for (int i = 0; i < dirtyCount; i++) {
+            finish(dirty.buffer.getInt(i * 4));
+        }
+        dirtyCount = 0;
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+        this.lazy = lazy;
+        if (!lazy) {
+            for (int entry = 0; entry < size; entry++) {
+                finish(entry);
+            }
+            dirtyCount = 0;
+        }
+    }
+
+    int entry(Window window) {
+        return find(window, false);
+    }
+
+    int total(int entry) {
+        return entries.buffer.getInt(entry * entryBytes + totalOffset);
+    }
+
+    void setTotal(int entry, int total) {
+        entries.buffer.putInt(entry * entryBytes + totalOffset, total);
+    }
+
+    int firstSuccessor(int entry) {
+        return entries.buffer.getInt(entry * entryBytes + headOffset);
+    }
+
+    int nextSuccessor(int entry, int s) {
+        return successorRecords.buffer.getInt(s * SUCCESSOR_BYTES + 6);
+    }
+
+    char chr(int entry, int s) {
+        return successorRecords.buffer.getChar(s * SUCCESSOR_BYTES);
+    }
+
+    int count(int entry, int s) {
+        return successorRecords.buffer.getInt(s * SUCCESSOR_BYTES + 2);
+    }
+
+    double cp(int entry, int s) {
+        return successorRecords.buffer.getDouble(s * SUCCESSOR_BYTES + 10);
+    }
+
+    void setCp(int entry, int s, double cp) {
+        successorRecords.buffer.putDouble(s * SUCCESSOR_BYTES + 10, cp);
+    }
+
+    int sample(int entry, double r) {
+        ByteBuffer s = successorRecords.buffer;
+        for (int succ = entries.buffer.getInt(entry * entryBytes + headOffset); succ != -1;
+                succ = s.getInt(succ * SUCCESSOR_BYTES + 6)) {
+            if (r < s.getDouble(succ * SUCCESSOR_BYTES + 10)) {
+                return s.getChar(succ * SUCCESSOR_BYTES);
+            }
+        }
+        return ' '; // Return space character if no character is found
+    }
+
+    public int size() {
+        return size;
+    }
+
+    String window(int entry) {
+        ByteBuffer e = entries.buffer;
+        int record = entry * entryBytes;
+        StringBuilder window = new StringBuilder(windowLength);
+        for (int i = 0; i < windowLength; i++) {
+            window.append(packed ? (char) (e.getLong(record) >>> ((windowLength - 1 - i) * Window.CHAR_BITS))
+                                 : e.getChar(record + 4 + 2 * i));
+        }
+        return window.toString();
+    }
+
+    /** Returns the number of bytes of native memory that this store holds. */
+    public long offHeapBytes() {
+        return (long) slots.buffer.capacity() + entries.buffer.capacity()
+                + successorRecords.buffer.capacity() + dirty.buffer.capacity();
+    }
+
+    // Returns the entry number of the given window, or -1 if the window is not in the
+    // store and add is false. If add is true, a missing window is added.
+    private int find(Window window, boolean add) {
+        int hash = Window.mix(packed ? window.packed() : window.hashCode());
+        ByteBuffer table = slots.buffer;
+        ByteBuffer e = entries.buffer;
+        int mask = slotCount - 1;
+        int slot = hash & mask;
+        int value;
+        while ((value = table.getInt(slot * 4)) != 0) {
+            int record = (value - 1) * entryBytes;
+            if (packed ? e.getLong(record) == window.packed() : e.getInt(record) == hash && keyEquals(record, window)) {
+                return value - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add) {
+            return -1;
+        }
+        entries.ensure((long) (size + 1) * entryBytes);
+        e = entries.buffer;
+        int record = size * entryBytes;
+        if (packed) {
+            e.putLong(record, window.packed());
+        }
+        else {
+            e.putInt(record, hash);
+            for (int i = 0; i < windowLength; i++) {
+                e.putChar(record + 4 + 2 * i, window.charAt(i));
+            }
+        }
+        e.putInt(record + headOffset, -1);
+        e.putInt(record + totalOffset, 0);
+        markDirty(size);
+        table.putInt(slot * 4, size + 1);
+        int entry = size++;
+        if (size > slotCount * LOAD_FACTOR) {
+            rehash(slotCount * 2);
+        }
+        return entry;
+    }
+
+    // Checks if the characters of the entry record at the given offset are those of the given window
+    private boolean keyEquals(int record, Window window) {
+        ByteBuffer e = entries.buffer;
+        for (int i = 0; i < windowLength; i++) {
+            if (e.getChar(record + 4 + 2 * i) != window.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Rebuilds the hash table with the given number of slots
+    private void rehash(int capacity) {
+        Arena table = new Arena(capacity * 4);
+        int mask = capacity - 1;
+        ByteBuffer e = entries.buffer;
+        for (int entry = 0; entry < size; entry++) {
+            int record = entry * entryBytes;
+            int slot = (packed ? Window.mix(e.getLong(record)) : e.getInt(record)) & mask;
+            while (table.buffer.getInt(slot * 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table.buffer.putInt(slot * 4, entry + 1);
+        }
+        slots = table;
+        slotCount = capacity;
+    }
+
+
+    /** A growable block of native memory. Growing it copies its contents to a new,
+     *  larger block; the old one is freed when its (small) ByteBuffer is collected. */
+    private static final class Arena {
+        ByteBuffer buffer;
+
+        Arena(int bytes) {
+            buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+
+        // Makes sure this arena holds at least the given number of bytes
+        void ensure(long bytes) {
+            if (bytes <= buffer.capacity()) {
+                return;
+            }
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalStateException("The off-heap store is full");
+            }
+            int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(bytes, 2L * buffer.capacity()));
+            ByteBuffer larger = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            buffer.clear();
+            larger.put(buffer);
+            larger.clear();
+            buffer = larger;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Arrays;
+
+/** How a language model with a memory budget (see LanguageModel.setMemoryBudget)
+ *  makes room when its store grows past the budget. Most windows of a corpus occur
+ *  once or twice, with a single successor, yet cost as much as frequent ones, so
+ *  both policies remove the rarest windows first:
+ *    minCount:  removes the windows counted fewer than minCount times, doubling
+ *               minCount until the store fits, and the successors counted fewer
+ *               than minSuccessorCount times.
+ *    topK:      keeps the most frequent windows that fit, and at most maxSuccessors
+ *               of the most frequent successors of each (0 keeps them all).
+ *  A store is pruned down to PRUNED_FRACTION of the budget, so that training can go
+ *  on for a while before it is pruned again. Windows that are removed and seen again
+ *  start counting from 0, so the counts of a pruned model are lower bounds. */
+public class PruningPolicy {
+
+    static final double PRUNED_FRACTION = 0.75;
+
+    private final boolean topK;
+    private final int minCount;
+    private final int minSuccessorCount;
+    private final int maxSuccessors;
+
+    private PruningPolicy(boolean topK, int minCount, int minSuccessorCount, int maxSuccessors) {
+        this.topK = topK;
+        this.minCount = minCount;
+        this.minSuccessorCount = minSuccessorCount;
+        this.maxSuccessors = maxSuccessors;
+    }
+
+    /** Returns a policy that removes the windows counted fewer than minCount times
+     *  (or fewer than 2 * minCount, 4 * minCount... until the store fits), and the
+     *  successors counted fewer than minSuccessorCount times. */
+    public static PruningPolicy minCount(int minCount, int minSuccessorCount) {
+        return new PruningPolicy(false, Math.max(minCount, 1), minSuccessorCount, 0);
+    }
+
+    /** Returns a policy that keeps the most frequent windows that fit, with at most
+     *  maxSuccessors successors each (or all of them, if maxSuccessors is 0). */
+    public static PruningPolicy topK(int maxSuccessors) {
+        return new PruningPolicy(true, 1, 0, maxSuccessors);
+    }
+
+    /** Prunes the given store until it takes at most the given number of bytes. */
+    void prune(WindowStore store, long budget) {
+        long target = (long) (budget * PRUNED_FRACTION);
+        int count = topK ? topCount(store, target) : minCount;
+        store.prune(count, minSuccessorCount, maxSuccessors);
+        while (store.memoryBytes() > target && store.size() > 0) {
+            count = topK ? count + 1 : count * 2;
+            store.prune(count, minSuccessorCount, maxSuccessors);
+        }
+    }
+
+    // Returns the count of the least frequent of the windows that fit in the given
+    // number of bytes, at the store's average size of a window
+    private static int topCount(WindowStore store, long target) {
+        int[] counts = store.windowCounts();
+        long windows = target * counts.length / Math.max(store.memoryBytes(), 1);
+        if (windows >= counts.length) {
+            return 1;
+        }
+        Arrays.sort(counts);
+        // Keeps at least one window, the most frequent
+        return counts[counts.length - (int) Math.max(windows, 1)];
+    }
+}
@@ -0,0 +1,15 @@
+/** What a compiled Automaton does when generation reaches a dead end: a window that
+ *  does not appear in the model (for example, the end of the corpus), so no character
+ *  can follow it. */
+public enum RestartPolicy {
+
+    /** Ends the text at the dead end, like LanguageModel.generate. */
+    STOP,
+
+    /** Goes back to the window of the initial text, and continues from there. */
+    RESTART_INITIAL,
+
+    /** Jumps to a window of the model drawn at random (each with the same probability),
+     *  and continues from there. */
+    RESTART_RANDOM
+}
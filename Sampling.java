@@ -0,0 +1,25 @@
+/** The ways a FrozenStore can sample the successors of a window (see LanguageModel.freeze). */
+public enum Sampling {
+
+    /** Scans the successors in order for the first cumulative probability greater than
+     *  the random number, like LanguageModel.getRandomChar: O(successors) per character,
+     *  and exactly the characters of an unfrozen model for the same seed. */
+    SCAN,
+
+    /** Binary-searches the cumulative probabilities for the first one greater than the
+     *  random number: O(log successors) per character, with no tables beyond the frozen
+     *  arrays, and exactly the characters of SCAN for the same seed. */
+    BINARY_SEARCH,
+
+    /** Draws from an alias table (Vose's alias method), built when the model is frozen:
+     *  O(1) per character, with one random number. The characters follow the same
+     *  distribution as SCAN, but are not the same ones for the same seed. */
+    ALIAS,
+
+    /** Draws only among the k most frequent successors of the window, with weights
+     *  scaled by a temperature: count ^ (1 / temperature), so temperatures below 1
+     *  favor the frequent successors more, and above 1 flatten the distribution.
+     *  The successors are sorted by count, and the prefix sums of their weights
+     *  computed, when the model is frozen, so a draw is a binary search over k sums. */
+    TOP_K
+}
@@ -0,0 +1,107 @@
+/** A list of CharData objects that reorders itself as characters are counted, in the
+ *  given ListOrder, so that the most frequent characters drift towards its beginning
+ *  instead of its end. An update finds the character, counts it and moves it in a
+ *  single pass over the list, where List.update takes two (indexOf, then a second walk
+ *  to the character): the walk keeps the nodes that the character may move next to,
+ *  and moving it relinks its node or swaps CharData objects between nodes. */
+public class SelfOrganizingList extends List {
+
+    private final ListOrder order;
+
+    /** Constructs an empty list that keeps its characters in the given order. */
+    public SelfOrganizingList(ListOrder order) {
+        this.order = order;
+    }
+
+    /** Returns the order of this list. */
+    public ListOrder getOrder() {
+        return order;
+    }
+
+    /** If the given character exists in one of the CharData objects in this list,
+     *  increments its counter and moves it according to the order of this list.
+     *  Otherwise, adds a new CharData object with the given chr to the list. */
+    public void update(char chr) {
+        update(chr, 1);
+    }
+
+    /** Like update(chr), but counts the given number of occurrences of chr at once. */
+    public void update(char chr, int count) {
+        Node previous = null;
+        // The first node of the run of nodes with the same count as the current one
+        Node run = null;
+        // The node after which a new character goes in FREQUENCY order (before the
+        // first node whose count is less than count), or null for the beginning
+        Node insertAfter = null;
+        boolean smaller = false;
+        for (Node current = first; current != null; previous = current, current = current.next) {
+            if (previous == null || previous.cp.count != current.cp.count) {
+                run = current;
+            }
+            if (current.cp.equals(chr)) {
+                current.cp.count += count;
+                if (order == ListOrder.MOVE_TO_FRONT && previous != null) {
+                    previous.next = current.next;
+                    current.next = first;
+                    first = current;
+                }
+                else if (order == ListOrder.TRANSPOSE && previous != null) {
+                    swap(previous, current);
+                }
+                else if (order == ListOrder.FREQUENCY && count == 1) {
+                    // The nodes before the run have larger counts, so the character
+                    // only needs to trade places with the first node of its run
+                    swap(run, current);
+                }
+                else if (order == ListOrder.FREQUENCY) {
+                    Node to = first;
+                    while (to != current && to.cp.count >= current.cp.count) {
+                        to = to.next;
+                    }
+                    moveUp(to, current);
+                }
+                return;
+            }
+            if (!smaller && current.cp.count < count) {
+                smaller = true;
+                insertAfter = previous;
+            }
+        }
+        // A new character: previous is now the last node, if any
+        Node node = new Node(new CharData(chr));
+        node.cp.count = count;
+        if (order == ListOrder.MOVE_TO_FRONT || previous == null
+                || (order == ListOrder.FREQUENCY && smaller && insertAfter == null)) {
+            node.next = first;
+            first = node;
+        }
+        else if (order == ListOrder.FREQUENCY && smaller) {
+            node.next = insertAfter.next;
+            insertAfter.next = node;
+        }
+        else {
+            previous.next = node;
+        }
+        size++;
+    }
+
+    // Moves the CharData object of the given node up to the given earlier node, and
+    // those from the earlier node on down by one node (a second walk, but only when
+    // several occurrences are counted at once, as when merging lists)
+    private static void moveUp(Node to, Node from) {
+        CharData moved = from.cp;
+        for (Node node = to; node != from; node = node.next) {
+            CharData next = node.cp;
+            node.cp = moved;
+            moved = next;
+        }
+        from.cp = moved;
+    }
+
+    // Swaps the CharData objects of the given nodes
+    private static void swap(Node a, Node b) {
+        CharData data = a.cp;
+        a.cp = b.cp;
+        b.cp = data;
+    }
+}
@@ -0,0 +1,327 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/** An approximate window store of bounded size, for corpora whose distinct windows
+ *  would not fit in memory. The counts of (window, successor) pairs, and of windows,
+ *  are kept in two count-min sketches: fixed tables of depth rows by width counters,
+ *  where each key adds to one counter per row, and its count is bounded by the
+ *  smallest of them. The bound is never too low, and with probability at least
+ *  1 - delta is too high by at most epsilon times the number of counted characters,
+ *  when width = e / epsilon and depth = ln(1 / delta) (rounded up).
+ *
+ *  Since the characters that never follow a window still share counters with others,
+ *  the store estimates counts by subtracting that noise: in each row, the average of
+ *  the other counters, and takes the median over the rows (the count-mean-min sketch).
+ *  Windows whose estimated count reaches hotThreshold are materialized: they get an
+ *  exact list of successors, seeded with the estimates of their earlier counts, up to
+ *  maxHotWindows of them. Other windows are sampled from the sketch: the successors
+ *  are the characters seen in the corpus, weighted by their estimates. Since the
+ *  sketch cannot list its windows, forEach and size cover only the materialized ones.
+ *  report() describes the accuracy and memory of the store. */
+public class SketchStore implements WindowStore {
+
+    private final double epsilon;
+    private final double delta;
+    private final int hotThreshold;
+    private final int maxHotWindows;
+
+    // The sketches: depth rows of width counters each, and a hash seed per row
+    private final int depth;
+    private final int widthBits;
+    private final int[] pairCounts;
+    private final int[] windowCounts;
+    private final long[] pairSums;
+    private final long[] windowSums;
+    private final long[] seeds;
+
+    // The characters seen as successors, in the order they were first seen
+    private final boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+    private char[] alphabet = new char[64];
+    private int alphabetSize;
+
+    // The frequent windows, with exact counts
+    private final HashMap<String, List> hot = new HashMap<String, List>();
+    private boolean lazy;
+
+    // The number of characters counted, and the hash code of the last window reached
+    // (which no count starts from, when it ends the corpus)
+    private long total;
+    private long last;
+
+    // Scratch space for sampling a window from the sketch
+    private double[] weights = new double[64];
+    private final double[] rows;
+
+    /** Constructs a store whose bounds are too high by at most epsilon times the
+     *  number of counted characters, with probability at least 1 - delta. Windows
+     *  counted hotThreshold times get exact lists, up to maxHotWindows of them. */
+    public SketchStore(double epsilon, double delta, int hotThreshold, int maxHotWindows) {
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.hotThreshold = hotThreshold;
+        this.maxHotWindows = maxHotWindows;
+        depth = Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+        // The width is a power of two, at least e / epsilon
+        int width = Integer.highestOneBit((int) Math.ceil(Math.E / epsilon) - 1) << 1;
+        widthBits = Integer.numberOfTrailingZeros(Math.max(width, 2));
+        pairCounts = new int[depth << widthBits];
+        windowCounts = new int[depth << widthBits];
+        pairSums = new long[depth];
+        windowSums = new long[depth];
+        rows = new double[depth];
+        seeds = new long[depth];
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int row = 0; row < depth; row++) {
+            seed = seed * 0x5DEECE66DL + 0xBL;
+            seeds[row] = seed | 1;
+        }
+    }
+
+    /** Constructs a store whose two sketches take about memoryBytes bytes in all,
+     *  with the given failure probability delta. */
+    public static SketchStore withMemory(long memoryBytes, double delta,
+                                         int hotThreshold, int maxHotWindows) {
+        int depth = Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+        long width = Long.highestOneBit(Math.max(2, memoryBytes / (2L * 4 * depth)));
+        return new SketchStore(Math.E / width, delta, hotThreshold, maxHotWindows);
+    }
+
+    public void update(Window window, char chr) {
+        add(window, chr, 1);
+    }
+
+    public void merge(Window window, List successors) {
+        CharData[] arr = successors.toArray();
+        for (int i = arr.length - 1; i >= 0; i--) {
+            add(window, arr[i].chr, arr[i].count);
+        }
+    }
+
+    // Counts n occurrences of chr after the given window
+    private void add(Window window, char chr, int n) {
+        total += n;
+        last = next(hash(window, 1), chr);
+        if (!seen[chr]) {
+            seen[chr] = true;
+            if (alphabetSize == alphabet.length) {
+                alphabet = Arrays.copyOf(alphabet, alphabetSize * 2);
+                weights = new double[alphabetSize * 2];
+            }
+            alphabet[alphabetSize++] = chr;
+        }
+        List probs = hot.get(window);
+        if (probs != null) {
+            probs.update(chr, n);
+            probs.dirty = true;
+            return;
+        }
+        long key = hash(window);
+        increment(windowCounts, windowSums, key, n);
+        increment(pairCounts, pairSums, pair(key, chr), n);
+        if (hot.size() < maxHotWindows && estimate(windowCounts, windowSums, key) >= hotThreshold) {
+            materialize(window, key);
+        }
+    }
+
+    // Gives the window an exact list, seeded with the estimated counts of its successors
+    private void materialize(Window window, long key) {
+        List probs = new List();
+        long tail = hash(window, 1);
+        for (int i = 0; i < alphabetSize; i++) {
+            int estimate = successor(key, tail, alphabet[i], false);
+            if (estimate > 0) {
+                probs.update(alphabet[i], estimate);
+            }
+        }
+        probs.dirty = true;
+        hot.put(window.toString(), probs);
+    }
+
+    // Adds n to the counters of the given key, and to the sums of their rows
+    private void increment(int[] sketch, long[] sums, long key, int n) {
+        for (int row = 0; row < depth; row++) {
+            sketch[index(row, key)] += n;
+            sums[row] += n;
+        }
+    }
+
+    // Returns the upper bound of the count of the given key: the smallest of its counters
+    private int bound(int[] sketch, long key) {
+        int bound = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            bound = Math.min(bound, sketch[index(row, key)]);
+        }
+        return bound;
+    }
+
+    // Returns the estimated count of the given key: the median over the rows of its
+    // counter less the average of the other counters in the row, rounded, between 0
+    // and the bound
+    private int estimate(int[] sketch, long[] sums, long key) {
+        int width = 1 << widthBits;
+        int bound = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int counter = sketch[index(row, key)];
+            bound = Math.min(bound, counter);
+            rows[row] = counter - (sums[row] - counter) / (double) (width - 1);
+        }
+        Arrays.sort(rows);
+        double median = (depth & 1) == 1 ? rows[depth / 2] : (rows[depth / 2 - 1] + rows[depth / 2]) / 2;
+        return (int) Math.max(0, Math.min(bound, Math.round(median)));
+    }
+
+    // Returns the position of the counter of the given key in the given row
+    private int index(int row, long key) {
+        return (row << widthBits) | (int) ((key * seeds[row]) >>> (Long.SIZE - widthBits));
+    }
+
+    // Returns the estimated count (or the upper bound, if bound is true) of chr after the
+    // window with the given hash code, or 0 if the window it leads to (whose hash code,
+    // without chr, is tail) was never counted: the noise of the sketch would otherwise
+    // lead generation to windows it cannot continue. Bounds only grow, so a window that
+    // passes this check can always be continued later.
+    private int successor(long key, long tail, char chr, boolean bound) {
+        long pair = pair(key, chr);
+        int estimate = bound ? bound(pairCounts, pair) : estimate(pairCounts, pairSums, pair);
+        long next = next(tail, chr);
+        if (estimate > 0 && next != last && bound(windowCounts, next) == 0) {
+            return 0;
+        }
+        return estimate;
+    }
+
+    // Returns a 64-bit hash code of the characters of the given window
+    private static long hash(Window window) {
+        return hash(window, 0);
+    }
+
+    // Returns a 64-bit hash code of the characters of the given window, from the given index
+    private static long hash(Window window, int from) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = from; i < window.length(); i++) {
+            h = next(h, window.charAt(i));
+        }
+        return h;
+    }
+
+    // Returns the hash code of the characters whose hash code is h, followed by chr
+    private static long next(long h, char chr) {
+        return (h ^ chr) * 0x100000001B3L;
+    }
+
+    // Returns the key of the pair of the given window (hash) and successor
+    private static long pair(long key, char chr) {
+        long h = (key ^ chr) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    public void calculateProbabilities() {
+        calculateDirtyProbabilities();
+    }
+
+    public void calculateProbabilitiesInParallel() {
+        calculateDirtyProbabilities();
+    }
+
+    // Only the materialized windows have probabilities to compute; the others are
+    // computed from the sketch each time they are sampled
+    public void calculateDirtyProbabilities() {
+        if (lazy) {
+            return;
+        }
+        for (List probs : hot.values()) {
+            ListStore.finish(probs);
+        }
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+        this.lazy = lazy;
+        if (!lazy) {
+            calculateDirtyProbabilities();
+        }
+    }
+
+    /** Returns true if the given window is materialized, or the bound of its count is
+     *  not 0 (which may be a false positive, when the window shares counters with others). */
+    public boolean containsKey(Window window) {
+        return hot.containsKey(window) || bound(windowCounts, hash(window)) > 0;
+    }
+
+    public int sample(Window window, double r) {
+        List probs = hot.get(window);
+        if (probs != null) {
+            ListStore.finish(probs);
+            return LanguageModel.getRandomChar(probs, r);
+        }
+        // The sketch is sampled through shared scratch space, so concurrent samplers take turns
+        synchronized (this) {
+            return sampleSketch(window, r);
+        }
+    }
+
+    // Samples the given window from the sketch
+    private int sampleSketch(Window window, double r) {
+        long key = hash(window);
+        if (bound(windowCounts, key) == 0) {
+            return -1;
+        }
+        long tail = hash(window, 1);
+        double sum = 0;
+        for (int i = 0; i < alphabetSize; i++) {
+            sum += successor(key, tail, alphabet[i], false);
+            weights[i] = sum;
+        }
+        // If the noise hides every successor, falls back to the upper bounds
+        if (sum == 0) {
+            for (int i = 0; i < alphabetSize; i++) {
+                sum += successor(key, tail, alphabet[i], true);
+                weights[i] = sum;
+            }
+        }
+        double target = r * sum;
+        for (int i = 0; i < alphabetSize; i++) {
+            if (target < weights[i]) {
+                return alphabet[i];
+            }
+        }
+        return ' '; // Return space character if no character is found
+    }
+
+    /** Returns the number of materialized windows. */
+    public int size() {
+        return hot.size();
+    }
+
+    /** Passes the materialized windows to the given action. */
+    public void forEach(BiConsumer<String, List> action) {
+        hot.forEach((window, probs) -> {
+            ListStore.finish(probs);
+            action.accept(window, probs);
+        });
+    }
+
+    /** Returns the number of bytes taken by the sketches. */
+    public long sketchBytes() {
+        return 4L * (pairCounts.length + windowCounts.length);
+    }
+
+    /** Returns a description of the accuracy and the memory use of this store. */
+    public String report() {
+        int successors = 0;
+        for (List probs : hot.values()) {
+            successors += probs.getSize();
+        }
+        return "sketches: " + depth + " x " + (1 << widthBits) + " counters, " + sketchBytes() + " bytes\n"
+             + "counted characters: " + total + "\n"
+             + "error bound: counts too high by at most " + (long) Math.ceil(epsilon * total)
+             + " (epsilon = " + epsilon + "), with probability " + (1 - delta) + "\n"
+             + "materialized windows: " + hot.size() + " of at most " + maxHotWindows
+             + " (threshold " + hotThreshold + "), with " + successors + " successors\n";
+    }
+
+    /** Returns a textual representation of the materialized windows of this store. */
+    public String toString() {
+        return listWindows();
+    }
+}
@@ -0,0 +1,163 @@
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/** A variable-order language model: learns the characters that follow every window
+ *  of every length from 0 up to maxOrder, and generates from the longest window that
+ *  it has seen, backing off to shorter windows when a long one is missing. So, unlike
+ *  a LanguageModel, generation never reaches a window it cannot continue.
+ *
+ *  The windows are kept in a single trie, read backwards: the root is the empty window,
+ *  and the child of a node for a character c is the window with c added at the start.
+ *  Windows that end with the same characters share their nodes, so all the orders
+ *  together cost about as much as the largest one alone. Each node holds the list of
+ *  its successors, and the edges of the trie are kept in one open-addressing table
+ *  keyed by (parent node, character). */
+public class TrieModel {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // The longest window length used by this model
+    int maxOrder;
+
+    // The successors of each node; node 0 is the root (the empty window)
+    List[] lists;
+    private int nodes;
+
+    // The edges: each key packs a parent node and a character, and maps to a child node.
+    // A key of -1 marks an empty slot.
+    private long[] edgeKeys;
+    private int[] edgeChildren;
+    private int edgeMask;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    /** Constructs a model with the given maximal window length and a given seed value. */
+    public TrieModel(int maxOrder, int seed) {
+        this(maxOrder, new Random(seed));
+    }
+
+    /** Constructs a model with the given maximal window length. */
+    public TrieModel(int maxOrder) {
+        this(maxOrder, new Random());
+    }
+
+    private TrieModel(int maxOrder, Random randomGenerator) {
+        this.maxOrder = maxOrder;
+        this.randomGenerator = randomGenerator;
+        lists = new List[16];
+        lists[0] = new List();
+        nodes = 1;
+        edgeKeys = new long[32];
+        Arrays.fill(edgeKeys, -1);
+        edgeChildren = new int[32];
+        edgeMask = 31;
+    }
+
+    /** Builds the model from the text in the given file (the corpus). Like
+     *  LanguageModel.train, ignores the whitespace at the end of the file. */
+    public void train(String fileName) {
+        String text = LanguageModel.readCorpus(Paths.get(fileName));
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // Counts c after every window that ends at i, from the empty one up
+            int node = 0;
+            lists[node].update(c);
+            for (int order = 1; order <= maxOrder && order <= i; order++) {
+                node = child(node, text.charAt(i - order), true);
+                lists[node].update(c);
+            }
+        }
+        for (int node = 0; node < nodes; node++) {
+            LanguageModel.calculateProbabilities(lists[node]);
+        }
+    }
+
+    /** Generates a random text that starts with the given text, and continues it by the
+     *  given number of characters. Each character follows the longest window (up to
+     *  maxOrder characters) that ends the text so far and appears in the corpus. */
+    public String generate(String initialText, int textLength) {
+        StringBuilder text = new StringBuilder(initialText.length() + textLength);
+        text.append(initialText);
+        for (int i = 0; i < textLength; i++) {
+            int node = 0;
+            for (int order = 1; order <= maxOrder && order <= text.length(); order++) {
+                int longer = child(node, text.charAt(text.length() - order), false);
+                if (longer == -1) {
+                    break;
+                }
+                node = longer;
+            }
+            if (lists[node].getSize() == 0) {
+                break; // the corpus is empty
+            }
+            text.append(LanguageModel.getRandomChar(lists[node], randomGenerator.nextDouble()));
+        }
+        return text.toString();
+    }
+
+    /** Returns the number of nodes (distinct windows of all lengths) in this model. */
+    public int size() {
+        return nodes;
+    }
+
+    // Returns the child of the given node for the given character. If there is no such
+    // child, adds it if add is true, and returns -1 otherwise.
+    private int child(int parent, char c, boolean add) {
+        long key = ((long) parent << 16) | c;
+        int slot = Window.mix(key) & edgeMask;
+        while (edgeKeys[slot] != -1) {
+            if (edgeKeys[slot] == key) {
+                return edgeChildren[slot];
+            }
+            slot = (slot + 1) & edgeMask;
+        }
+        if (!add) {
+            return -1;
+        }
+        if (nodes == lists.length) {
+            lists = Arrays.copyOf(lists, nodes * 2);
+        }
+        lists[nodes] = new List();
+        edgeKeys[slot] = key;
+        edgeChildren[slot] = nodes;
+        // The root has no incoming edge, so there are nodes - 1 edges
+        if (nodes > edgeKeys.length * LOAD_FACTOR) {
+            rehash(edgeKeys.length * 2);
+        }
+        return nodes++;
+    }
+
+    // Rebuilds the edge table with the given number of slots
+    private void rehash(int capacity) {
+        long[] oldKeys = edgeKeys;
+        int[] oldChildren = edgeChildren;
+        edgeKeys = new long[capacity];
+        Arrays.fill(edgeKeys, -1);
+        edgeChildren = new int[capacity];
+        edgeMask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != -1) {
+                int slot = Window.mix(oldKeys[i]) & edgeMask;
+                while (edgeKeys[slot] != -1) {
+                    slot = (slot + 1) & edgeMask;
+                }
+                edgeKeys[slot] = oldKeys[i];
+                edgeChildren[slot] = oldChildren[i];
+            }
+        }
+    }
+
+
+    public static void main(String[] args) {
+        int maxOrder = Integer.parseInt(args[0]);
+        String initialText = args[1];
+        int generatedTextLength = Integer.parseInt(args[2]);
+        Boolean randomGeneration = args[3].equals("random");
+        String fileName = args[4];
+        TrieModel model = randomGeneration ? new TrieModel(maxOrder) : new TrieModel(maxOrder, 20);
+        model.train(fileName);
+        System.out.println(model.generate(initialText, generatedTextLength));
+    }
+}
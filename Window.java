@@ -0,0 +1,156 @@
+/** A sliding window over a text: holds the last (up to) capacity characters that
+ *  were pushed into it, without allocating anything when it advances.
+ *
+ *  The window keeps its hash code equal to the hash code of the String with the same
+ *  characters (rolling it forward on each push), and equals(Object) accepts any
+ *  CharSequence with the same characters. So a window can be used directly to look up
+ *  a HashMap whose keys are Strings, e.g. CharDataMap.get(window). Note that the
+ *  relation is one-sided (a String never equals a window), which is fine for lookups,
+ *  since HashMap always compares the given key against the stored one, but means a
+ *  window must never be stored as a key itself: use toString() for that.
+ *
+ *  Windows that fit in 64 bits are also kept packed into a long (see packed()). */
+public final class Window implements CharSequence {
+
+    // The number of bits used for each character in the packed form of a window
+    static final int CHAR_BITS = 16;
+
+    // The characters of the window, in a circular buffer
+    private final char[] chars;
+
+    // Position of the first (oldest) character in the buffer, and the current length
+    private int start;
+    private int length;
+
+    // String.hashCode() of the current characters
+    private int hash;
+
+    // 31 to the power of (capacity - 1), used to remove the oldest character from the hash
+    private final int highPower;
+
+    // The characters of the window, CHAR_BITS bits each, the newest in the lowest bits
+    private long packed;
+    private final long packMask;
+
+    /** Constructs an empty window that holds up to the given number of characters
+     *  (at least one). */
+    public Window(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A window must hold at least one character: " + capacity);
+        }
+        chars = new char[capacity];
+        int power = 1;
+        for (int i = 1; i < capacity; i++) {
+            power *= 31;
+        }
+        highPower = power;
+        packMask = (capacity * CHAR_BITS >= Long.SIZE) ? -1L : (1L << (capacity * CHAR_BITS)) - 1;
+    }
+
+    /** Constructs a full window holding the last capacity characters of the given text
+     *  (or all of it, if it is shorter). */
+    public Window(int capacity, CharSequence text) {
+        this(capacity);
+        for (int i = Math.max(0, text.length() - capacity); i < text.length(); i++) {
+            push(text.charAt(i));
+        }
+    }
+
+    /** Returns the number of characters this window can hold. */
+    public int capacity() {
+        return chars.length;
+    }
+
+    /** Returns true if this window holds capacity characters. */
+    public boolean isFull() {
+        return length == chars.length;
+    }
+
+    /** Adds the given character to the end of this window. If the window is full,
+     *  its first character is dropped. */
+    public void push(char c) {
+        if (length < chars.length) {
+            chars[(start + length) % chars.length] = c;
+            length++;
+        }
+        else {
+            hash -= chars[start] * highPower;
+            chars[start] = c;
+            start = (start + 1) % chars.length;
+        }
+        hash = 31 * hash + c;
+        packed = ((packed << CHAR_BITS) | c) & packMask;
+    }
+
+    /** Empties this window. */
+    public void clear() {
+        start = 0;
+        length = 0;
+        hash = 0;
+        packed = 0;
+    }
+
+    /** Returns true if the characters of a full window fit in a single long. */
+    public boolean isPackable() {
+        return chars.length * CHAR_BITS <= Long.SIZE;
+    }
+
+    /** Returns the characters of this window packed into a long. Two full windows
+     *  of the same packable capacity are equal if and only if their packed forms are. */
+    public long packed() {
+        return packed;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return chars[(start + index) % chars.length];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /** Returns the same value as toString().hashCode(). */
+    public int hashCode() {
+        return hash;
+    }
+
+    /** Checks if the given object is a CharSequence with the same characters as this window. */
+    public boolean equals(Object other) {
+        if (!(other instanceof CharSequence)) {
+            return false;
+        }
+        CharSequence text = (CharSequence) other;
+        if (text.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (chars[(start + i) % chars.length] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the characters of this window as a new String. */
+    public String toString() {
+        StringBuilder str = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            str.append(chars[(start + i) % chars.length]);
+        }
+        return str.toString();
+    }
+
+    /** Spreads the bits of a key (a packed window, a hash code, or any other long), so
+     *  that similar keys land in different slots of an open-addressing hash table. */
+    static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.function.BiConsumer;
+
+/** The backing store of a language model: maps windows to the counts and the
+ *  probabilities of the characters that follow them in the corpus.
+ *  ListStore keeps the classic map of Strings to lists of CharData objects;
+ *  the other implementations trade that for speed or memory. */
+public interface WindowStore {
+
+    /** Counts one more occurrence of the given character after the given (full) window. */
+    void update(Window window, char chr);
+
+    /** Counts all the occurrences in the given list after the given (full) window,
+     *  as if they were counted one by one in the order the characters were first seen
+     *  (i.e. from the end of the list to its beginning). The store may keep the list. */
+    void merge(Window window, List successors);
+
+    /** Computes and sets the probabilities (p and cp) of the successors of every window. */
+    void calculateProbabilities();
+
+    /** Like calculateProbabilities, but spreads the work over the common ForkJoinPool. */
+    void calculateProbabilitiesInParallel();
+
+    /** Computes and sets the probabilities of only the windows whose counts changed
+     *  since probabilities were last computed (the "dirty" windows). */
+    void calculateDirtyProbabilities();
+
+    /** Turns lazy probabilities on or off. In lazy mode, the probabilities of a dirty
+     *  window are computed when the window is next sampled (or listed), and the
+     *  calculate methods above do nothing, so training never pays for a pass over the
+     *  windows. Turning lazy mode off computes the probabilities of all dirty windows. */
+    void setLazyProbabilities(boolean lazy);
+
+    /** Returns true if the given window appears in this store. */
+    boolean containsKey(Window window);
+
+    /** Returns the first successor of the given window whose cumulative probability
+     *  is greater than r (a number between 0 and 1), like LanguageModel.getRandomChar,
+     *  or -1 if the window does not appear in this store. */
+    int sample(Window window, double r);
+
+    /** Returns the number of windows in this store. */
+    int size();
+
+    /** Passes every window of this store, and a list of its successors (with their
+     *  counts and probabilities, in sampling order), to the given action. Stores that
+     *  do not keep lists build new ones, so this is meant for saving or converting a
+     *  model, not for generation. */
+    void forEach(BiConsumer<String, List> action);
+
+    /** Returns the windows of this store and their successors, built from forEach, in
+     *  the format of LanguageModel.toString: a line "window : list" per window. Stores
+     *  that do not keep Lists return it from toString. */
+    default String listWindows() {
+        StringBuilder str = new StringBuilder();
+        forEach((window, probs) -> str.append(window + " : " + probs + "\n"));
+        return str.toString();
+    }
+
+    /** Returns true if this store supports memoryBytes, windowCounts and prune, and so
+     *  can have a memory budget (see LanguageModel.setMemoryBudget). */
+    default boolean canPrune() {
+        return false;
+    }
+
+    /** Returns an estimate of the bytes of heap memory taken by this store, for memory
+     *  budgets (see PruningPolicy). Stores that cannot be pruned do not support it. */
+    default long memoryBytes() {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot be pruned");
+    }
+
+    /** Returns the number of times each window of this store was counted, in no
+     *  particular order. */
+    default int[] windowCounts() {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot be pruned");
+    }
+
+    /** Removes the windows counted fewer than minCount times. From the other windows,
+     *  removes the successors counted fewer than minSuccessorCount times, and all but
+     *  the maxSuccessors most frequent successors (if maxSuccessors is not 0), but
+     *  always keeps the most frequent one. The windows that lost successors become
+     *  dirty, so their probabilities are computed again. Returns the number of
+     *  windows removed. */
+    default int prune(int minCount, int minSuccessorCount, int maxSuccessors) {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot be pruned");
+    }
+}
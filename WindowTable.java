@@ -0,0 +1,326 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/** A window store built from flat primitive arrays, instead of Strings, lists and nodes.
+ *
+ *  Windows are kept in an open-addressing hash table (linear probing) that maps each
+ *  window to a dense entry number. Windows of up to four characters are keyed by their
+ *  packed form (see Window.packed()); longer ones by their hash and characters, which
+ *  are stored one after the other in a single char array. A table given the alphabet
+ *  of its corpus packs the ids of the characters instead (see Alphabet.pack()), so
+ *  windows of up to 9 characters of a 100-symbol corpus are keyed by a single long.
+ *
+ *  The successors of each entry form a linked list inside parallel arrays, with new
+ *  characters added at the front, exactly like List.update does, so the table samples
+ *  the same characters as a List for the same random numbers.
+ *
+ *  Updating a window costs a single probe of the table. Memory use, in bytes:
+ *    per window:    about 5 for the slot (at 0.75 load), 4 for the successor list head
+ *                   and 4 for the total count, plus 8 for a packed key, or 4 + 2 x the
+ *                   window length for a longer one (21 bytes for windows up to 4 chars,
+ *                   27 for 7 chars)
+ *    per successor: 2 (char) + 4 (count) + 4 (next) + 8 (cumulative probability) = 18
+ *  compared with roughly 110 bytes per window (String, its byte array, HashMap.Node,
+ *  List) and 56 per successor (Node, CharData) in a ListStore. */
+public class WindowTable extends EntryStore {
+
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The length of the windows in this table, and the alphabet their packed keys use
+    // (null if they pack chars)
+    private final int windowLength;
+    private final Alphabet alphabet;
+    private final boolean packed;
+
+    // The hash table: each slot holds an entry number plus one, or 0 if empty
+    private int[] slots;
+    private int mask;
+
+    // The entries (windows), indexed by entry number
+    private int size;
+    private long[] keys;        // packed windows (if packed)
+    private int[] hashes;       // hash codes of the windows (if not packed)
+    private char[] keyChars;    // characters of the windows (if not packed)
+    private int[] head;         // first successor of each window
+    private int[] total;        // total count of each window's successors (set with the probabilities)
+
+    // The entries whose counts changed since their probabilities were last computed.
+    // An entry is in this list exactly when its total is 0.
+    // (not kept in lazy mode, where a total of 0 is enough)
+    private int dirtyCount;
+    private int[] dirty;
+
+    // The successors, linked into lists through next
+    private int successors;
+    private char[] chr;
+    private int[] count;
+    private int[] next;
+    private double[] cp;
+
+    /** Constructs an empty table for windows of the given length. */
+    public WindowTable(int windowLength) {
+        this(windowLength, null);
+    }
+
+    /** Constructs an empty table for windows of the given length, made of characters
+     *  of the given alphabet. */
+    public WindowTable(int windowLength, Alphabet alphabet) {
+        this.windowLength = windowLength;
+        this.alphabet = alphabet;
+        this.packed = (alphabet == null) ? windowLength * Window.CHAR_BITS <= Long.SIZE : alphabet.canPack(windowLength);
+        slots = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+        int entries = (int) (INITIAL_CAPACITY * LOAD_FACTOR);
+        if (packed) {
+            keys = new long[entries];
+        }
+        else {
+            hashes = new int[entries];
+            keyChars = new char[entries * windowLength];
+        }
+        head = new int[entries];
+        total = new int[entries];
+        dirty = new int[entries];
+        chr = new char[entries];
+        count = new int[entries];
+        next = new int[entries];
+        cp = new double[entries];
+    }
+
+    public void update(Window window, char c) {
+        add(find(window, true), c, 1);
+    }
+
+    public void merge(Window window, List successors) {
+        int entry = find(window, true);
+        CharData[] arr = successors.toArray();
+        for (int i = arr.length - 1; i >= 0; i--) {
+            add(entry, arr[i].chr, arr[i].count);
+        }
+    }
+
+    // Adds n occurrences of c to the successors of the given entry
+    private void add(int entry, char c, int n) {
+        if (total[entry] != 0) {
+            total[entry] = 0;
+            if (!lazy) {
+                dirty[dirtyCount++] = entry;
+            }
+        }
+        // If the character is already a successor, increments its counter
+        for (int s = head[entry]; s != -1; s = next[s]) {
+            if (chr[s] == c) {
+                count[s] += n;
+                return;
+            }
+        }
+        // Otherwise, adds it to the beginning of the window's successors
+        if (successors == chr.length) {
+            int capacity = successors * 2;
+            chr = Arrays.copyOf(chr, capacity);
+            count = Arrays.copyOf(count, capacity);
+            next = Arrays.copyOf(next, capacity);
+            cp = Arrays.copyOf(cp, capacity);
+        }
+        chr[successors] = c;
+        count[successors] = n;
+        next[successors] = head[entry];
+        head[entry] = successors++;
+    }
+
+    public void calculateProbabilities() {
+        if (lazy) {
+            return;
+        }
+        for (int entry = 0; entry < size; entry++) {
+            calculateProbabilities(entry);
+        }
+        dirtyCount = 0;
+    }
+
+    public void calculateProbabilitiesInParallel() {
+        if (lazy) {
+            return;
+        }
+        IntStream.range(0, size).parallel().forEach(this::calculateProbabilities);
+        dirtyCount = 0;
+    }
+
+    public void calculateDirtyProbabilities() {
+        for (int i = 0; i < dirtyCount; i++) {
+            if (total[dirty[i]] == 0) {
+                calculateProbabilities(dirty[i]);
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    public void setLazyProbabilities(boolean lazy) {
+        this.lazy = lazy;
+        if (!lazy) {
+            for (int entry = 0; entry < size; entry++) {
+                if (total[entry] == 0) {
+                    calculateProbabilities(entry);
+                }
+            }
+            dirtyCount = 0;
+        }
+    }
+
+    int entry(Window window) {
+        return find(window, false);
+    }
+
+    int total(int entry) {
+        return total[entry];
+    }
+
+    void setTotal(int entry, int total) {
+        this.total[entry] = total;
+    }
+
+    int firstSuccessor(int entry) {
+        return head[entry];
+    }
+
+    int nextSuccessor(int entry, int s) {
+        return next[s];
+    }
+
+    char chr(int entry, int s) {
+        return chr[s];
+    }
+
+    int count(int entry, int s) {
+        return count[s];
+    }
+
+    double cp(int entry, int s) {
+        return cp[s];
+    }
+
+    void setCp(int entry, int s, double cp) {
+        this.cp[s] = cp;
+    }
+
+    int sample(int entry, double r) {
+        for (int s = head[entry]; s != -1; s = next[s]) {
+            if (r < cp[s]) {
+                return chr[s];
+            }
+        }
+        return ' '; // Return space character if no character is found
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns the entry number of the given window, or -1 if the window is not in the
+    // table and add is false. If add is true, a missing window is added.
+    private int find(Window window, boolean add) {
+        long key = packed ? key(window) : 0;
+        if (key == -1 && alphabet != null) {
+            if (add) {
+                throw new IllegalArgumentException("The window " + window + " is not in the alphabet of the table");
+            }
+            return -1;
+        }
+        int hash = packed ? Window.mix(key) : Window.mix(window.hashCode());
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (packed ? keys[entry] == key : hashes[entry] == hash && keyEquals(entry, window)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!add) {
+            return -1;
+        }
+        int entry = addEntry(window, key, hash);
+        slots[slot] = entry + 1;
+        if (size > slots.length * LOAD_FACTOR) {
+            rehash(slots.length * 2);
+        }
+        return entry;
+    }
+
+    // Returns the packed key of the given window, or -1 if it is not in the alphabet
+    private long key(Window window) {
+        return (alphabet == null) ? window.packed() : alphabet.pack(window);
+    }
+
+    // Checks if the characters of the given entry are those of the given window
+    private boolean keyEquals(int entry, Window window) {
+        int offset = entry * windowLength;
+        for (int i = 0; i < windowLength; i++) {
+            if (keyChars[offset + i] != window.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Adds the given window as a new entry with no successors, and returns its number
+    private int addEntry(Window window, long key, int hash) {
+        if (size == head.length) {
+            int capacity = size * 2;
+            if (packed) {
+                keys = Arrays.copyOf(keys, capacity);
+            }
+            else {
+                hashes = Arrays.copyOf(hashes, capacity);
+                keyChars = Arrays.copyOf(keyChars, capacity * windowLength);
+            }
+            head = Arrays.copyOf(head, capacity);
+            total = Arrays.copyOf(total, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+        }
+        if (packed) {
+            keys[size] = key;
+        }
+        else {
+            hashes[size] = hash;
+            int offset = size * windowLength;
+            for (int i = 0; i < windowLength; i++) {
+                keyChars[offset + i] = window.charAt(i);
+            }
+        }
+        head[size] = -1;
+        // A new entry has a total of 0, so it is dirty
+        if (!lazy) {
+            dirty[dirtyCount++] = size;
+        }
+        return size++;
+    }
+
+    // Rebuilds the hash table with the given number of slots
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = (packed ? Window.mix(keys[entry]) : hashes[entry]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+
+    String window(int entry) {
+        if (packed && alphabet != null) {
+            return alphabet.unpack(keys[entry], windowLength);
+        }
+        if (packed) {
+            StringBuilder window = new StringBuilder(windowLength);
+            for (int i = windowLength - 1; i >= 0; i--) {
+                window.append((char) (keys[entry] >>> (i * Window.CHAR_BITS)));
+            }
+            return window.toString();
+        }
+        return new String(keyChars, entry * windowLength, windowLength);
+    }
+}